@@ -0,0 +1,125 @@
+package net.kjnine.networkleveling;
+
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import net.kjnine.networkleveling.NetworkLevelManager.MessageType;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.scheduler.ScheduledTask;
+
+/**
+ * Sums the AddExperience chat messages of a player until no gain came for a window,
+ * or the first one was held for the max hold, and sends them as one message with the reasons combined.
+ * Level-ups send what is held first, so they are never shown before the gains that led to them.
+ */
+public class ChatAggregator {
+
+	// most different reasons listed in one message
+	private static final int MAX_REASONS = 3;
+
+	private static final class Pending {
+
+		final long first;
+		long last;
+		long experience;
+		Set<String> reasons = new LinkedHashSet<>();
+
+		Pending(long now) {
+			this.first = now;
+		}
+
+	}
+
+	private NetworkLevelingPlugin pl;
+	private Map<UUID, Pending> pending = new ConcurrentHashMap<>();
+	private volatile long window, maxHold;
+	private ScheduledTask sendTask;
+
+	public ChatAggregator(NetworkLevelingPlugin pl) {
+		this.pl = pl;
+	}
+
+	/**
+	 * @param window milliseconds without a gain before the sum is sent, 0 or less sends every gain right away
+	 * @param maxHold most milliseconds the first gain of a sum is held
+	 */
+	public void start(long window, long maxHold) {
+		if(sendTask != null) sendTask.cancel();
+		sendTask = null;
+		this.window = window;
+		this.maxHold = Math.max(window, maxHold);
+		flushAll();
+		if(window > 0) {
+			long tick = Math.max(10, Math.min(window, this.maxHold) / 4);
+			sendTask = pl.getProxy().getScheduler().schedule(pl, this::sendDue, tick, tick, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * @param reason the formatted reason, empty if there is none
+	 */
+	public void addExperience(ProxiedPlayer p, long experience, String reason) {
+		if(window <= 0) {
+			pl.getLevelManager().sendLevelingMessage(p, MessageType.ADDEXPERIENCE, experience, reason);
+			return;
+		}
+		long now = System.currentTimeMillis();
+		pending.compute(p.getUniqueId(), (u, held) -> {
+			if(held == null) held = new Pending(now);
+			held.last = now;
+			held.experience += experience;
+			if(!reason.isEmpty() && held.reasons.size() < MAX_REASONS) held.reasons.add(reason);
+			return held;
+		});
+		// closed or disabled while it was added, no task sends it anymore
+		if(window <= 0) flush(p.getUniqueId());
+	}
+
+	private void sendDue() {
+		long now = System.currentTimeMillis();
+		for(Map.Entry<UUID, Pending> e : pending.entrySet()) {
+			Pending held = e.getValue();
+			if(now - held.last >= window || now - held.first >= maxHold) {
+				if(pending.remove(e.getKey(), held)) send(e.getKey(), held);
+			}
+		}
+	}
+
+	/**
+	 * Sends the player's held gains right away, called before a level-up.
+	 */
+	public void flush(UUID uuid) {
+		Pending held = pending.remove(uuid);
+		if(held != null) send(uuid, held);
+	}
+
+	public void flushAll() {
+		for(UUID uuid : pending.keySet()) flush(uuid);
+	}
+
+	private void send(UUID uuid, Pending held) {
+		if(held.experience == 0) return;
+		ProxiedPlayer p = pl.getProxy().getPlayer(uuid);
+		if(p == null || !p.isConnected()) {
+			// left while it was held, it goes into their login summary instead
+			pl.getNotificationStore().addExperience(uuid, held.experience);
+			return;
+		}
+		pl.getLevelManager().sendLevelingMessage(p, MessageType.ADDEXPERIENCE, held.experience, String.join(" ", held.reasons));
+	}
+
+	/**
+	 * Sends everything held, gains added later are sent right away.
+	 */
+	public void close() {
+		if(sendTask != null) sendTask.cancel();
+		sendTask = null;
+		window = 0;
+		flushAll();
+	}
+
+}
@@ -0,0 +1,324 @@
+package net.kjnine.networkleveling;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import net.kjnine.networkleveling.data.MessageCodec;
+import net.kjnine.networkleveling.data.MessagingAdapter;
+import net.kjnine.networkleveling.data.NetworkMessage;
+import net.kjnine.networkleveling.data.NetworkMessage.SubChannel;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.scheduler.ScheduledTask;
+import redis.clients.jedis.Jedis;
+
+/**
+ * Splits the players between the proxies of a network, every UUID is owned by exactly one live proxy.
+ * Proxies announce themselves with a heartbeat in a Redis sorted set, scored by the Redis server's time
+ * when it was last sent, and the owner of a UUID is found on a consistent hash ring over the proxies that sent one recently.
+ * Changes to players owned by another proxy are forwarded to it, so only the owner caches and writes them.
+ * When a proxy joins or leaves, the others flush and drop the players they no longer own,
+ * and acknowledge it in Redis. Loads wait until every live proxy acknowledged the current members, or the timeout.
+ * Replies the owner can't address, for players connected to another proxy, are passed on by that proxy.
+ * After each flush, a proxy publishes the experience of the players it wrote, so the leaderboards of the others
+ * lag behind by at most one flush interval.
+ */
+public class Cluster {
+
+	private static final String MEMBERS = "networkleveling:proxies";
+	// per proxy, the members it released the players of
+	private static final String RELEASED_PREFIX = "networkleveling:released:";
+	private static final String CHANNEL_PREFIX = "NLCluster-";
+	// replies for players connected to another proxy, every proxy receives them
+	private static final String REPLY_CHANNEL = "NLClusterReply";
+	// experience of the players a proxy just wrote, for the leaderboards of the others
+	private static final String TOTALS_CHANNEL = "NLClusterTotals";
+	// points on the ring per proxy, more spread the players more evenly
+	private static final int VIRTUAL_NODES = 128;
+
+	private NetworkLevelingPlugin pl;
+	private MessagingAdapter netmsg;
+	private final String id;
+	private final String address, pass;
+	private final int port;
+	private final long interval, timeout;
+	private volatile List<String> members;
+	private volatile TreeMap<Long, String> ring;
+	// completes once the proxies released the players they no longer own, loads wait for it
+	private volatile CompletableFuture<Void> handoff = new CompletableFuture<>();
+	// guarded by this
+	private long handoffDeadline;
+	private volatile String released;
+	// only used by the heartbeat task
+	private Jedis jedis;
+	private ScheduledTask heartbeatTask;
+	// forwarded messages are only read on the listener thread, so one instance per thread is reused
+	private ThreadLocal<NetworkMessage> inbound = ThreadLocal.withInitial(NetworkMessage::new);
+
+	/**
+	 * @param id unique name of this proxy
+	 * @param interval milliseconds between heartbeats
+	 * @param timeout milliseconds after its last heartbeat a proxy counts as gone
+	 */
+	public Cluster(NetworkLevelingPlugin pl, MessagingAdapter netmsg, String id,
+			String address, int port, String pass, long interval, long timeout) {
+		this.pl = pl;
+		this.netmsg = netmsg;
+		this.id = id;
+		this.address = address;
+		this.port = port;
+		this.pass = pass;
+		this.interval = Math.max(100, interval);
+		this.timeout = Math.max(this.interval * 2, timeout);
+		List<String> self = new ArrayList<>();
+		self.add(id);
+		this.members = self;
+		this.ring = buildRing(self);
+		this.handoffDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this.timeout);
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	/**
+	 * @return the live proxies, sorted by name
+	 */
+	public List<String> getMembers() {
+		return members;
+	}
+
+	/**
+	 * Listens for forwarded changes and replies, and starts the heartbeat.
+	 */
+	public void start() {
+		String channel = CHANNEL_PREFIX + id;
+		netmsg.registerChannel(channel);
+		netmsg.addListener(channel, this::receive);
+		netmsg.registerChannel(REPLY_CHANNEL);
+		netmsg.addListener(REPLY_CHANNEL, this::receiveReply);
+		netmsg.registerChannel(TOTALS_CHANNEL);
+		netmsg.addListener(TOTALS_CHANNEL, this::receiveTotals);
+		heartbeatTask = pl.getProxy().getScheduler().schedule(pl, this::heartbeat, 0, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Renews this proxy's heartbeat, drops proxies whose heartbeat timed out,
+	 * and rebuilds the ring if the live proxies changed.
+	 * Scores come from the Redis server's clock, so a proxy with a skewed clock can't time out the others.
+	 * Keeps the last known ring while Redis can't be reached.
+	 */
+	private synchronized void heartbeat() {
+		// loads don't wait longer than the timeout, even while Redis can't be reached
+		if(!handoff.isDone() && System.nanoTime() - handoffDeadline >= 0) handoff.complete(null);
+		List<String> live;
+		List<String> acks = null;
+		try {
+			if(jedis == null) {
+				jedis = new Jedis(address, port);
+				if(pass != null && !pass.isEmpty()) jedis.auth(pass);
+			}
+			List<String> time = jedis.time();
+			long now = Long.parseLong(time.get(0)) * 1000 + Long.parseLong(time.get(1)) / 1000;
+			jedis.zadd(MEMBERS, now, id);
+			jedis.zremrangeByScore(MEMBERS, 0, now - timeout);
+			live = new ArrayList<>(jedis.zrange(MEMBERS, 0, -1));
+			live.sort(null);
+			// a proxy alone since it started has nothing to release
+			if(released == null && live.equals(members)) released = epoch(live);
+			String r = released;
+			if(r != null) jedis.setex(RELEASED_PREFIX + id, (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(timeout)), r);
+			if(!handoff.isDone() && live.equals(members)) {
+				String[] keys = new String[live.size()];
+				for(int i = 0; i < keys.length; i++) keys[i] = RELEASED_PREFIX + live.get(i);
+				acks = jedis.mget(keys);
+			}
+		} catch(Exception e) {
+			e.printStackTrace();
+			if(jedis != null) jedis.close();
+			jedis = null;
+			return;
+		}
+		if(live.equals(members)) {
+			if(acks != null && acks.stream().allMatch(epoch(live)::equals)) handoff.complete(null);
+			return;
+		}
+		pl.getLogger().info("Cluster changed from " + members + " to " + live);
+		if(handoff.isDone()) handoff = new CompletableFuture<>();
+		handoffDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		members = live;
+		ring = buildRing(live);
+		String epoch = epoch(live);
+		// players moved to another proxy are written now and loaded there from storage once every proxy acknowledged it
+		pl.getProfileCache().release(uuid -> !isOwner(uuid)).whenComplete((v, t) -> {
+			// without the acknowledgment, the new owners load once the timeout passed
+			if(t != null) t.printStackTrace();
+			else released = epoch;
+		});
+	}
+	
+	/**
+	 * @return a name for the live proxies, the same on every proxy that sees the same ones
+	 */
+	private static String epoch(List<String> live) {
+		return Integer.toHexString(String.join("\n", live).hashCode());
+	}
+	
+	/**
+	 * @return completes once the proxies that owned players before the last membership change released them,
+	 * or the timeout passed, so a load doesn't read what they have yet to write
+	 */
+	public CompletableFuture<Void> getHandoff() {
+		return handoff;
+	}
+
+	private static TreeMap<Long, String> buildRing(List<String> proxies) {
+		TreeMap<Long, String> ring = new TreeMap<>();
+		try {
+			MessageDigest md5 = MessageDigest.getInstance("MD5");
+			for(String proxy : proxies) {
+				for(int i = 0; i < VIRTUAL_NODES; i++) {
+					byte[] h = md5.digest((proxy + "#" + i).getBytes(StandardCharsets.UTF_8));
+					long point = 0;
+					for(int b = 0; b < 8; b++) point = (point << 8) | (h[b] & 0xFF);
+					ring.put(point, proxy);
+				}
+			}
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		return ring;
+	}
+
+	/**
+	 * @return the proxy owning the player, the first point on the ring at or after the UUID's hash
+	 */
+	public String getOwner(UUID uuid) {
+		TreeMap<Long, String> r = ring;
+		// murmur3 finalizer, UUIDs given out in sequence still land all over the ring
+		long h = uuid.getMostSignificantBits() ^ uuid.getLeastSignificantBits();
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		Map.Entry<Long, String> e = r.ceilingEntry(h);
+		return e != null ? e.getValue() : r.firstEntry().getValue();
+	}
+
+	public boolean isOwner(UUID uuid) {
+		return id.equals(getOwner(uuid));
+	}
+	
+	/**
+	 * Every proxy receives what the servers publish, only one of them should answer it.
+	 * @param uuid the player the message is about, or null if it isn't about one
+	 * @return whether this proxy owns the player, or is the first live proxy for messages without one
+	 */
+	public boolean handles(UUID uuid) {
+		return uuid == null ? id.equals(members.get(0)) : isOwner(uuid);
+	}
+
+	/**
+	 * Sends a SetLevel or AddExperience to the owner of its player.
+	 * @return whether it was queued
+	 */
+	public boolean forward(String owner, NetworkMessage msg) {
+		return netmsg.sendToProxies(CHANNEL_PREFIX + owner, MessageCodec.encode(msg));
+	}
+
+	/**
+	 * Applies a forwarded change, even if the ring changed meanwhile, so it can't bounce between proxies.
+	 */
+	private void receive(byte[] data) {
+		NetworkMessage msg = MessageCodec.decode(data, inbound.get());
+		UUID uuid = msg.getUniqueId();
+		if(uuid == null) throw new IllegalArgumentException("No UUID found in forwarded Data");
+		if(msg.getSubChannel() == SubChannel.SET_LEVEL && msg.hasLevel()) {
+			pl.getLevelManager().applyLevel(uuid, msg.getLevel(), msg.getReason()).exceptionally(this::logError);
+		} else if(msg.getSubChannel() == SubChannel.ADD_EXPERIENCE && msg.hasExperience()) {
+			pl.getLevelManager().applyExperience(uuid, msg.getExperience(), msg.getReason()).exceptionally(this::logError);
+		}
+	}
+
+	/**
+	 * Sends an NLReturn reply to every proxy, the one the player is connected to passes it on to the player's server.
+	 * @return whether it was queued
+	 */
+	public boolean forwardReply(UUID player, byte[] reply) {
+		ByteBuffer b = ByteBuffer.allocate(16 + reply.length);
+		b.putLong(player.getMostSignificantBits()).putLong(player.getLeastSignificantBits()).put(reply);
+		return netmsg.sendToProxies(REPLY_CHANNEL, b.array());
+	}
+
+	private void receiveReply(byte[] data) {
+		if(data.length < 16) throw new IllegalArgumentException("No UUID found in forwarded reply");
+		ByteBuffer b = ByteBuffer.wrap(data);
+		ProxiedPlayer p = pl.getProxy().getPlayer(new UUID(b.getLong(), b.getLong()));
+		if(p == null || p.getServer() == null) return;
+		netmsg.sendData(p.getServer().getInfo(), "NLReturn", Arrays.copyOfRange(data, 16, data.length));
+	}
+
+	/**
+	 * Sends the leaderboard experience of the written players to the other proxies.
+	 */
+	public void publishTotals(List<UUID> written) {
+		NetworkMessage msg = new NetworkMessage().setServerSource(id);
+		Leaderboard leaderboard = pl.getLeaderboard();
+		for(UUID uuid : written) {
+			Leaderboard.Entry e = leaderboard.getEntry(uuid);
+			if(e == null) continue;
+			msg.addUniqueId(uuid);
+			msg.addExperience(e.getExperience());
+		}
+		if(msg.getUniqueIdCount() > 0) netmsg.sendToProxies(TOTALS_CHANNEL, MessageCodec.encode(msg));
+	}
+
+	/**
+	 * Only takes the experience of players this proxy doesn't own, its own are up to date.
+	 */
+	private void receiveTotals(byte[] data) {
+		NetworkMessage msg = MessageCodec.decode(data, inbound.get());
+		if(id.equals(msg.getServerSource()) || msg.getUniqueIdCount() != msg.getExperienceCount()) return;
+		Leaderboard leaderboard = pl.getLeaderboard();
+		for(int i = 0; i < msg.getUniqueIdCount(); i++) {
+			UUID uuid = msg.getUniqueIdAt(i);
+			if(!isOwner(uuid)) leaderboard.update(uuid, msg.getExperienceAt(i));
+		}
+	}
+
+	private Void logError(Throwable t) {
+		t.printStackTrace();
+		return null;
+	}
+
+	/**
+	 * Stops the heartbeat and leaves the cluster right away, instead of after the timeout.
+	 */
+	public synchronized void close() {
+		if(heartbeatTask != null) heartbeatTask.cancel();
+		heartbeatTask = null;
+		try {
+			if(jedis == null) {
+				jedis = new Jedis(address, port);
+				if(pass != null && !pass.isEmpty()) jedis.auth(pass);
+			}
+			jedis.zrem(MEMBERS, id);
+			jedis.del(RELEASED_PREFIX + id);
+		} catch(Exception e) {
+			e.printStackTrace();
+		}
+		if(jedis != null) jedis.close();
+		jedis = null;
+	}
+
+}
@@ -0,0 +1,78 @@
+package net.kjnine.networkleveling;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import net.md_5.bungee.api.scheduler.ScheduledTask;
+
+/**
+ * Sums AddExperience messages per player over a short window, 
+ * so a burst of small grants is applied (and announced) as one.
+ */
+public class ExperienceCoalescer {
+	
+	private NetworkLevelingPlugin pl;
+	private Map<UUID, Long> pending = new ConcurrentHashMap<>();
+	private volatile long window;
+	private ScheduledTask drainTask;
+	
+	public ExperienceCoalescer(NetworkLevelingPlugin pl) {
+		this.pl = pl;
+	}
+	
+	/**
+	 * @param window milliseconds grants are held for, 0 or less applies them right away
+	 */
+	public void start(long window) {
+		if(drainTask != null) drainTask.cancel();
+		drainTask = null;
+		this.window = window;
+		drain();
+		if(window > 0)
+			drainTask = pl.getProxy().getScheduler().schedule(pl, this::drain, window, window, TimeUnit.MILLISECONDS);
+	}
+	
+	public void add(UUID uuid, long experience) {
+		if(window <= 0) {
+			apply(uuid, experience);
+			return;
+		}
+		pending.merge(uuid, experience, Long::sum);
+	}
+	
+	/**
+	 * Applies every pending sum.
+	 * @return completes once every sum is applied
+	 */
+	public CompletableFuture<Void> drain() {
+		List<CompletableFuture<Void>> applied = new ArrayList<>();
+		for(UUID uuid : pending.keySet()) {
+			Long sum = pending.remove(uuid);
+			if(sum != null && sum != 0) applied.add(apply(uuid, sum));
+		}
+		return CompletableFuture.allOf(applied.toArray(new CompletableFuture[0]));
+	}
+	
+	private CompletableFuture<Void> apply(UUID uuid, long experience) {
+		return pl.getLevelManager().addExperience(uuid, experience).exceptionally(t -> {
+			t.printStackTrace();
+			return null;
+		});
+	}
+	
+	/**
+	 * @return completes once the sums still held are applied
+	 */
+	public CompletableFuture<Void> close() {
+		if(drainTask != null) drainTask.cancel();
+		drainTask = null;
+		window = 0;
+		return drain();
+	}
+	
+}
@@ -0,0 +1,207 @@
+package net.kjnine.networkleveling;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Network-wide ranking by total experience.
+ * Entries are kept in an order-statistic treap ordered by (experience descending, uuid), 
+ * each node knowing the size of its subtree, so updates, top-N pages and rank lookups take logarithmic time.
+ */
+public class Leaderboard {
+	
+	public static class Entry {
+		private final UUID uuid;
+		private final long experience;
+		private final int rank;
+		
+		Entry(UUID uuid, long experience, int rank) {
+			this.uuid = uuid;
+			this.experience = experience;
+			this.rank = rank;
+		}
+		
+		public UUID getUniqueId() {
+			return uuid;
+		}
+		
+		public long getExperience() {
+			return experience;
+		}
+		
+		/**
+		 * @return the 1-based position on the leaderboard
+		 */
+		public int getRank() {
+			return rank;
+		}
+	}
+	
+	private static final class Node {
+		final UUID uuid;
+		final long experience;
+		final int priority;
+		Node left, right;
+		int size = 1;
+		
+		Node(UUID uuid, long experience, int priority) {
+			this.uuid = uuid;
+			this.experience = experience;
+			this.priority = priority;
+		}
+	}
+	
+	private Node root;
+	private Map<UUID, Long> experience = new HashMap<>();
+	private Random random = new Random();
+	
+	/**
+	 * Sets the experience of the player, adding them if they aren't ranked yet.
+	 */
+	public synchronized void update(UUID uuid, long exp) {
+		Long old = experience.put(uuid, exp);
+		if(old != null) {
+			if(old == exp) return;
+			root = remove(root, uuid, old);
+		}
+		root = insert(root, new Node(uuid, exp, random.nextInt()));
+	}
+	
+	/**
+	 * Adds the player only if they aren't ranked yet, used while loading so live updates win.
+	 */
+	public synchronized void load(UUID uuid, long exp) {
+		if(experience.containsKey(uuid)) return;
+		update(uuid, exp);
+	}
+	
+	public synchronized void remove(UUID uuid) {
+		Long old = experience.remove(uuid);
+		if(old != null) root = remove(root, uuid, old);
+	}
+	
+	public synchronized int size() {
+		return size(root);
+	}
+	
+	/**
+	 * @return the 1-based rank of the player, or -1 if they aren't ranked
+	 */
+	public synchronized int getRank(UUID uuid) {
+		Long exp = experience.get(uuid);
+		if(exp == null) return -1;
+		int rank = 1;
+		Node n = root;
+		while(n != null) {
+			int c = compare(uuid, exp, n);
+			if(c < 0) {
+				n = n.left;
+			} else {
+				rank += size(n.left);
+				if(c == 0) break;
+				rank++;
+				n = n.right;
+			}
+		}
+		return rank;
+	}
+	
+	public synchronized Entry getEntry(UUID uuid) {
+		Long exp = experience.get(uuid);
+		if(exp == null) return null;
+		return new Entry(uuid, exp, getRank(uuid));
+	}
+	
+	/**
+	 * @param offset how many of the best players to skip
+	 * @param count most entries to return
+	 * @return the entries from rank offset+1, best first
+	 */
+	public synchronized List<Entry> getTop(int offset, int count) {
+		List<Entry> out = new ArrayList<>(Math.max(0, Math.min(count, size(root) - offset)));
+		if(offset >= 0 && count > 0) collect(root, offset, offset + count, 0, out);
+		return out;
+	}
+	
+	/**
+	 * In-order walk of only the subtrees overlapping [from, to).
+	 * @param before how many entries rank ahead of this subtree
+	 */
+	private void collect(Node n, int from, int to, int before, List<Entry> out) {
+		if(n == null || before >= to || before + n.size <= from) return;
+		int leftSize = size(n.left);
+		collect(n.left, from, to, before, out);
+		int index = before + leftSize;
+		if(index >= from && index < to) out.add(new Entry(n.uuid, n.experience, index + 1));
+		collect(n.right, from, to, index + 1, out);
+	}
+	
+	private static int size(Node n) {
+		return n == null ? 0 : n.size;
+	}
+	
+	private static Node update(Node n) {
+		n.size = 1 + size(n.left) + size(n.right);
+		return n;
+	}
+	
+	/**
+	 * Higher experience first, ties broken by uuid.
+	 */
+	private static int compare(UUID uuid, long exp, Node n) {
+		if(exp != n.experience) return exp > n.experience ? -1 : 1;
+		return uuid.compareTo(n.uuid);
+	}
+	
+	private static Node rotateRight(Node n) {
+		Node l = n.left;
+		n.left = l.right;
+		l.right = update(n);
+		return update(l);
+	}
+	
+	private static Node rotateLeft(Node n) {
+		Node r = n.right;
+		n.right = r.left;
+		r.left = update(n);
+		return update(r);
+	}
+	
+	private static Node insert(Node n, Node add) {
+		if(n == null) return add;
+		if(compare(add.uuid, add.experience, n) < 0) {
+			n.left = insert(n.left, add);
+			if(n.left.priority > n.priority) return rotateRight(update(n));
+		} else {
+			n.right = insert(n.right, add);
+			if(n.right.priority > n.priority) return rotateLeft(update(n));
+		}
+		return update(n);
+	}
+	
+	private static Node remove(Node n, UUID uuid, long exp) {
+		if(n == null) return null;
+		int c = compare(uuid, exp, n);
+		if(c < 0) {
+			n.left = remove(n.left, uuid, exp);
+		} else if(c > 0) {
+			n.right = remove(n.right, uuid, exp);
+		} else {
+			if(n.left == null) return n.right;
+			if(n.right == null) return n.left;
+			if(n.left.priority > n.right.priority) {
+				n = rotateRight(n);
+				n.right = remove(n.right, uuid, exp);
+			} else {
+				n = rotateLeft(n);
+				n.left = remove(n.left, uuid, exp);
+			}
+		}
+		return update(n);
+	}
+	
+}
@@ -0,0 +1,146 @@
+package net.kjnine.networkleveling;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import net.md_5.bungee.api.ChatColor;
+import net.md_5.bungee.api.chat.BaseComponent;
+import net.md_5.bungee.api.chat.TextComponent;
+
+/**
+ * A configured message compiled once into chat components, with argument slots for its format specifiers.
+ * The text between specifiers is translated and parsed when compiled, a send only formats and parses its arguments.
+ * Every argument starts with the colors in effect at its slot,
+ * and the text after it keeps the template's colors, whatever colors the argument uses.
+ */
+public final class MessageTemplate {
+
+	// same syntax as java.util.Formatter
+	private static final Pattern SPECIFIER = Pattern.compile("%(\\d+\\$)?([-#+ 0,(<]*)?(\\d+)?(\\.\\d+)?([tT])?([a-zA-Z%])");
+
+	// literals[i] comes before slot i, the last one after every slot
+	private final BaseComponent[][] literals;
+	private final Slot[] slots;
+	private final int size;
+
+	/**
+	 * One format specifier of the template.
+	 */
+	private static final class Slot {
+
+		final String specifier;
+		final int argument;
+		// the colors in effect where the argument starts
+		final String colors;
+
+		Slot(String specifier, int argument, String colors) {
+			this.specifier = specifier;
+			this.argument = argument;
+			this.colors = colors;
+		}
+
+		BaseComponent[] format(Object[] args) {
+			Object arg = argument < args.length ? args[argument] : null;
+			String s;
+			if(arg instanceof String && specifier.equals("%s")) s = (String) arg;
+			else s = String.format(specifier, arg);
+			return TextComponent.fromLegacyText(colors + ChatColor.translateAlternateColorCodes('&', s));
+		}
+
+	}
+
+	private MessageTemplate(BaseComponent[][] literals, Slot[] slots) {
+		this.literals = literals;
+		this.slots = slots;
+		int n = 0;
+		for(BaseComponent[] l : literals) n += l.length;
+		this.size = n;
+	}
+
+	/**
+	 * @param template a message with '&' color codes and {@link String#format(String, Object...)} specifiers
+	 */
+	public static MessageTemplate compile(String template) {
+		String t = ChatColor.translateAlternateColorCodes('&', template == null ? "" : template);
+		List<BaseComponent[]> literals = new ArrayList<>();
+		List<Slot> slots = new ArrayList<>();
+		StringBuilder literal = new StringBuilder();
+		// colors in effect where the current literal starts
+		String start = "";
+		int next = 0, last = 0, pos = 0;
+		Matcher m = SPECIFIER.matcher(t);
+		while(m.find()) {
+			literal.append(t, pos, m.start());
+			pos = m.end();
+			char conversion = m.group(6).charAt(0);
+			if(conversion == '%' || conversion == 'n') {
+				literal.append(conversion == '%' ? "%" : System.lineSeparator());
+				continue;
+			}
+			String colors = colorsAfter(start, literal);
+			literals.add(parse(start, literal));
+			int argument;
+			String specifier = m.group();
+			if(m.group(1) != null) {
+				argument = Integer.parseInt(m.group(1).substring(0, m.group(1).length() - 1)) - 1;
+				specifier = "%" + specifier.substring(1 + m.group(1).length());
+			} else if(m.group(2) != null && m.group(2).indexOf('<') >= 0) {
+				argument = last;
+				specifier = specifier.replace("<", "");
+			} else {
+				argument = next++;
+			}
+			last = argument;
+			slots.add(new Slot(specifier, argument, colors));
+			start = colors;
+			literal.setLength(0);
+		}
+		literal.append(t, pos, t.length());
+		literals.add(parse(start, literal));
+		return new MessageTemplate(literals.toArray(new BaseComponent[0][]), slots.toArray(new Slot[0]));
+	}
+
+	private static BaseComponent[] parse(String colors, CharSequence text) {
+		if(text.length() == 0) return new BaseComponent[0];
+		return TextComponent.fromLegacyText(colors + text);
+	}
+
+	/**
+	 * @return the color and formatting codes in effect after the text, starting with the given ones
+	 */
+	private static String colorsAfter(String start, CharSequence text) {
+		String color = "", formats = "";
+		String all = start + text;
+		for(int i = 0; i < all.length() - 1; i++) {
+			if(all.charAt(i) != ChatColor.COLOR_CHAR) continue;
+			char c = Character.toLowerCase(all.charAt(i + 1));
+			if((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f')) {
+				color = "" + ChatColor.COLOR_CHAR + c;
+				formats = "";
+			} else if(c >= 'k' && c <= 'o') {
+				if(formats.indexOf(c) < 0) formats += "" + ChatColor.COLOR_CHAR + c;
+			} else if(c == 'r') {
+				color = formats = "";
+			}
+		}
+		return color + formats;
+	}
+
+	/**
+	 * @return the components of the message, the literal ones are shared between sends and must not be changed
+	 */
+	public BaseComponent[] format(Object... args) {
+		if(slots.length == 0) return literals[0];
+		List<BaseComponent> out = new ArrayList<>(size + slots.length * 2);
+		for(int i = 0; i < slots.length; i++) {
+			out.addAll(Arrays.asList(literals[i]));
+			out.addAll(Arrays.asList(slots[i].format(args)));
+		}
+		out.addAll(Arrays.asList(literals[slots.length]));
+		return out.toArray(new BaseComponent[0]);
+	}
+
+}
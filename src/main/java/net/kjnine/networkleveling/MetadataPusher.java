@@ -0,0 +1,69 @@
+package net.kjnine.networkleveling;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import net.kjnine.networkleveling.data.MessagingAdapter;
+import net.kjnine.networkleveling.data.NetworkMessage;
+import net.md_5.bungee.api.config.ServerInfo;
+
+/**
+ * Sends NLMetadata to the server a player connects to.
+ * With deltas enabled it remembers what each server was sent during the player's session,
+ * skipping the push if nothing changed and only sending changed fields otherwise.
+ */
+public class MetadataPusher {
+	
+	private NetworkLevelingPlugin pl;
+	private MessagingAdapter netmsg;
+	private boolean delta;
+	// uuid -> server name -> {level, experience} last sent
+	private Map<UUID, Map<String, long[]>> sent = new ConcurrentHashMap<>();
+	
+	public MetadataPusher(NetworkLevelingPlugin pl, MessagingAdapter netmsg, boolean delta) {
+		this.pl = pl;
+		this.netmsg = netmsg;
+		this.delta = delta;
+	}
+	
+	public void setDelta(boolean delta) {
+		this.delta = delta;
+		if(!delta) sent.clear();
+	}
+	
+	/**
+	 * Reads the level and experience with one profile lookup and sends what the server doesn't have yet.
+	 * @return whether a message was sent
+	 */
+	public CompletableFuture<Boolean> push(UUID uuid, ServerInfo server) {
+		return pl.getLevelManager().getProfile(uuid).thenApply(p -> {
+			int level;
+			long exp;
+			synchronized(p) {
+				level = p.getLevel();
+				exp = p.getExperience();
+			}
+			NetworkMessage msg = new NetworkMessage().setUniqueId(uuid);
+			// a push finishing after the player left must not be remembered
+			if(delta && pl.getProxy().getPlayer(uuid) != null) {
+				long[] last = sent.computeIfAbsent(uuid, u -> new ConcurrentHashMap<>()).put(server.getName(), new long[] {level, exp});
+				if(last != null && last[0] == level && last[1] == exp) return false;
+				if(last == null || last[0] != level) msg.setLevel(level);
+				if(last == null || last[1] != exp) msg.setExperience(exp);
+			} else {
+				msg.setLevel(level).setExperience(exp);
+			}
+			return netmsg.sendData(server, "NLMetadata", netmsg.encode(msg));
+		});
+	}
+	
+	/**
+	 * Forgets what was sent for the player, called when they leave the proxy.
+	 */
+	public void forget(UUID uuid) {
+		sent.remove(uuid);
+	}
+	
+}
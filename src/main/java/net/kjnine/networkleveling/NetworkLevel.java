@@ -1,65 +1,162 @@
 package net.kjnine.networkleveling;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
 
 import net.md_5.bungee.api.ChatColor;
 import net.md_5.bungee.config.Configuration;
 
 public class NetworkLevel {
 	
+	/**
+	 * Highest max-level accepted, the experience of higher levels doesn't fit in a long.
+	 */
+	public static final int LEVEL_LIMIT = 1000000;
+	
 	private static Configuration levelGroups;
-	private static Set<NetworkLevel> levels;
+	// everything init builds, swapped as one so readers never mix two configs
+	private static volatile LevelIndex index;
 	
 	public static void init(Configuration lvlgroups) {
+		init(lvlgroups, 10000);
+	}
+	
+	public static void init(Configuration lvlgroups, int maximumLevel) {
 		levelGroups = lvlgroups;
-		levels = new HashSet<>();
+		int max = Math.max(1, Math.min(maximumLevel, LEVEL_LIMIT));
+		List<NetworkLevel> levels = new ArrayList<>();
 		for(String k : levelGroups.getKeys()) {
 			Configuration c = levelGroups.getSection(k);
-			NetworkLevel nl = new NetworkLevel(c.getInt("min"), c.getInt("max"), ChatColor.valueOf(c.getString("color")), c.contains("name") ? c.getString("name") : k);
+			NetworkLevel nl = new NetworkLevel(c.getInt("min"), c.getInt("max"), ChatColor.valueOf(c.getString("color")), c.contains("name") ? c.getString("name") : k, max);
 			levels.add(nl);
 		}
+		long[] t = new long[max + 1];
+		for(int l = 0; l <= max; l++) t[l] = calculateMaximumExperience(l);
+		index = new LevelIndex(levels, max, t);
+	}
+	
+	public static int getMaximumLevel() {
+		return index.maxLevel;
 	}
 
+	/**
+	 * @return the total experience needed to finish the level
+	 */
 	public static long getMaximumExperience(int level) {
-		 // Sum of first N numbers, times 7
-		 if(level < 10)
-			 return 7*((level*(level+1))/2);
-		 // sum of first N squares for past lvl10 (at lvl10 both methods have same max)
-		 long calc = ((level)*(level+1)*((2*level)+1))/6;
-		 return calc;
-	 }
+		LevelIndex i = index;
+		long[] t = i == null ? null : i.thresholds;
+		if(t != null && level >= 0 && level < t.length) return t[level];
+		return calculateMaximumExperience(level);
+	}
+	
+	private static long calculateMaximumExperience(int level) {
+		long l = level;
+		// Sum of first N numbers, times 7
+		if(l < 10)
+			return 7*((l*(l+1))/2);
+		// sum of first N squares for past lvl10 (at lvl10 both methods have same max)
+		return (l*(l+1)*((2*l)+1))/6;
+	}
+	
+	/**
+	 * Binary search over the threshold table.
+	 * @return the level a player with this much total experience is at, at most the max level
+	 */
+	public static int levelForExperience(long experience) {
+		LevelIndex idx = index;
+		long[] t = idx.thresholds;
+		int i = Arrays.binarySearch(t, 1, t.length, experience);
+		// an exact match has finished level i, otherwise i is the first level whose maximum is above the experience
+		int level = i >= 0 ? i + 1 : -(i + 1);
+		return Math.min(level, idx.maxLevel);
+	}
 
 	public static NetworkLevel getLevelGroup(int level) {
-		int min = 100000;
-		NetworkLevel nlmin = null;
-		int max = 1;
-		NetworkLevel nlmax = null;
-		for(NetworkLevel l : levels) {
-			if(level >= l.getMinLevel() && level < l.getMaxLevel()) return l;
-			if(l.getMinLevel() < min) {
-				min = l.getMinLevel();
-				nlmin = l;
+		return index.get(level);
+	}
+	
+	/**
+	 * Immutable lookup of the level groups, with the max level and threshold table of the same init, rebuilt on every init.
+	 * The configured ranges are split into disjoint segments, the first group (in config order) 
+	 * containing a segment owns it, and gaps between groups belong to the lowest group.
+	 * Levels close to the lowest group are read from a dense array, higher ones by binary search over the segments.
+	 */
+	private static class LevelIndex {
+		
+		private static final int DENSE_LIMIT = 65536;
+		
+		final int maxLevel;
+		// thresholds[level] == getMaximumExperience(level)
+		final long[] thresholds;
+		private final int lowest, highest;
+		private final NetworkLevel lowestGroup, highestGroup;
+		// segment i is [bounds[i], bounds[i+1]) and belongs to owners[i]
+		private final int[] bounds;
+		private final NetworkLevel[] owners;
+		private final NetworkLevel[] dense;
+		
+		LevelIndex(List<NetworkLevel> levels, int maxLevel, long[] thresholds) {
+			this.maxLevel = maxLevel;
+			this.thresholds = thresholds;
+			NetworkLevel low = null, high = null;
+			TreeSet<Integer> b = new TreeSet<>();
+			for(NetworkLevel l : levels) {
+				if(low == null || l.getMinLevel() < low.getMinLevel()) low = l;
+				if(high == null || l.getMaxLevel() > high.getMaxLevel()) high = l;
+				b.add(l.getMinLevel());
+				b.add(l.getMaxLevel());
+			}
+			lowestGroup = low;
+			highestGroup = high;
+			lowest = low == null ? 0 : low.getMinLevel();
+			highest = high == null ? 0 : Math.max(lowest, high.getMaxLevel());
+			bounds = b.subSet(lowest, true, highest, true).stream().mapToInt(Integer::intValue).toArray();
+			owners = new NetworkLevel[Math.max(0, bounds.length - 1)];
+			for(int i = 0; i < owners.length; i++) {
+				owners[i] = lowestGroup;
+				for(NetworkLevel l : levels) {
+					if(bounds[i] >= l.getMinLevel() && bounds[i] < l.getMaxLevel()) {
+						owners[i] = l;
+						break;
+					}
+				}
 			}
-			if(l.getMaxLevel() > max) {
-				max = l.getMaxLevel();
-				nlmax = l;
+			dense = new NetworkLevel[(int) Math.min((long) highest - lowest, DENSE_LIMIT)];
+			for(int i = 0; i < owners.length && bounds[i] - lowest < dense.length; i++) {
+				Arrays.fill(dense, bounds[i] - lowest, Math.min(bounds[i+1] - lowest, dense.length), owners[i]);
 			}
 		}
-		if(level < min) return nlmin;
-		if(level >= max) return nlmax;
-		return nlmin;
+		
+		NetworkLevel get(int level) {
+			if(level < lowest) return lowestGroup;
+			if(level >= highest) return highestGroup;
+			int d = level - lowest;
+			if(d < dense.length) return dense[d];
+			int i = Arrays.binarySearch(bounds, level);
+			return owners[i >= 0 ? i : -(i + 1) - 1];
+		}
+		
 	}
 	
 	
 	private int min, max;
 	private ChatColor color;
 	private String name;
-	private NetworkLevel(int min, int max, ChatColor color, String name) {
+	private String formattedName;
+	// formatLevel output of min+i, for the levels of the group up to the max level
+	private final String[] formattedLevels;
+	private NetworkLevel(int min, int max, ChatColor color, String name, int maxLevel) {
 		this.min = min;
 		this.max = max;
 		this.color = color;
 		this.name = name;
+		this.formattedName = String.format("%s%s", color, name);
+		// levels past the max level can't be reached, a group spanning more than the dense lookup formats the rest on use
+		long cached = Math.min(Math.min((long) max, (long) maxLevel + 1) - min, LevelIndex.DENSE_LIMIT);
+		this.formattedLevels = new String[(int) Math.max(0, cached)];
+		for(int i = 0; i < formattedLevels.length; i++) formattedLevels[i] = String.format("%sLevel %,d", color, min + i);
 	}
 
 	public int getMinLevel() {
@@ -79,11 +176,14 @@ public class NetworkLevel {
 	}
 
 	public String formatLevel(int level) {
-		return String.format("%sLevel %,d", color, level);
+		int i = level - min;
+		if(i < 0 || i >= formattedLevels.length) 
+			return String.format("%sLevel %,d", color, level);
+		return formattedLevels[i];
 	}
 
 	public String formatName() {
-		return String.format("%s%s", color, name);
+		return formattedName;
 	}
 	
 }
@@ -1,176 +1,254 @@
 package net.kjnine.networkleveling;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
-import java.io.IOException;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
-import org.bson.BsonElement;
-import org.bson.BsonInt32;
-import org.bson.BsonInt64;
-import org.bson.BsonString;
-
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
-
-import net.kjnine.networkleveling.data.ByteMessage;
+import net.kjnine.networkleveling.data.Journal;
+import net.kjnine.networkleveling.data.MessageCodec;
 import net.kjnine.networkleveling.data.MessagingAdapter;
-import net.md_5.bungee.api.ChatColor;
-import net.md_5.bungee.api.chat.TextComponent;
+import net.kjnine.networkleveling.data.NetworkMessage;
+import net.kjnine.networkleveling.data.NetworkMessage.SubChannel;
+import net.kjnine.networkleveling.data.PlayerProfile;
 import net.md_5.bungee.api.config.ServerInfo;
 import net.md_5.bungee.api.connection.ProxiedPlayer;
 
 public class NetworkLevelManager {
 
+	/**
+	 * Most UUIDs accepted in one GetLevels or GetExperiences request.
+	 */
+	public static final int MAX_BULK = 1000;
+
 	private NetworkLevelingPlugin pl;
+	// decoded inbound messages are only read on the listener thread, so one instance per thread is reused
+	private ThreadLocal<NetworkMessage> inbound = ThreadLocal.withInitial(NetworkMessage::new);
+	private volatile Map<MessageType, MessageTemplate> templates;
 	
 	public NetworkLevelManager(NetworkLevelingPlugin pl) {
 		this.pl = pl;
+		compileTemplates();
+	}
+	
+	/**
+	 * Compiles the message of every MessageType from the messages config, called again when the config is reloaded.
+	 */
+	public void compileTemplates() {
+		Map<MessageType, MessageTemplate> compiled = new EnumMap<>(MessageType.class);
+		for(MessageType type : MessageType.values()) {
+			compiled.put(type, MessageTemplate.compile(pl.getMessages().getString(type.getConfigPath(), type.getDefaultMessage())));
+		}
+		templates = compiled;
 	}
 	
+	/**
+	 * In cluster mode, a message is answered by the owner of its player, a bulk one by the owner of its first UUID.
+	 * Bulk answers and the leaderboard have the other proxies' players as of their owner's last flush,
+	 * so they may be up to cache.flush-interval old.
+	 */
 	public void registerMessaging(MessagingAdapter netmsg) {
 		netmsg.registerChannel("NetworkLeveling");
 		netmsg.registerChannel("NLMetadata");
 		netmsg.registerChannel("NLReturn");
 		
 		netmsg.addListener("NetworkLeveling", (data) -> {
-			Map<String, Object> dataMap = new ByteMessage(data).getDatamap();
-			String subchannel = (String) dataMap.get("SubChannel");
-			UUID uuid = (UUID) dataMap.get("UUID");
-			ServerInfo server = pl.getProxy().getServerInfo((String) dataMap.get("ServerSource"));
+			NetworkMessage msg = MessageCodec.decode(data, inbound.get());
+			SubChannel subchannel = msg.getSubChannel();
+			UUID uuid = msg.getUniqueId();
+			boolean bulk = subchannel == SubChannel.GET_LEVELS || subchannel == SubChannel.GET_EXPERIENCES || subchannel == SubChannel.GET_TOP;
+			ServerInfo server = msg.getServerSource() == null ? null : pl.getProxy().getServerInfo(msg.getServerSource());
 			if(subchannel == null) throw new IllegalArgumentException("SubChannel not found in Data");
-			if(uuid == null) throw new IllegalArgumentException("No UUID found in Data");
+			if(bulk && msg.getUniqueIdCount() > MAX_BULK) throw new IllegalArgumentException("Received " + subchannel.getName() + " with more than " + MAX_BULK + " UUIDs");
+			if(!bulk && uuid == null) throw new IllegalArgumentException("No UUID found in Data");
+			Cluster cluster = pl.getCluster();
+			// the owner got the same message and answers it
+			if(cluster != null && !cluster.handles(bulk && msg.getUniqueIdCount() > 0 ? msg.getUniqueIdAt(0) : uuid)) return;
+			UUID addressee = uuid != null || msg.getUniqueIdCount() == 0 ? uuid : msg.getUniqueIdAt(0);
 			if(server == null) {
-				ProxiedPlayer upl = pl.getProxy().getPlayer(uuid);
-				if(upl != null) 
+				ProxiedPlayer upl = addressee == null ? null : pl.getProxy().getPlayer(addressee);
+				if(upl != null && upl.getServer() != null) 
 					server = upl.getServer().getInfo();
-				else 
+				else if(addressee == null || cluster == null) 
 					throw new IllegalArgumentException("No Server Source found in Data");
 			}
-			if(subchannel.equals("GetLevel")) {
-				int level = pl.getLevelManager().getLevel(uuid);
-				ByteArrayOutputStream bout = new ByteArrayOutputStream();
-				DataOutputStream dout = new DataOutputStream(bout);
-				try {
-					dout.writeUTF("SubChannel");
-					dout.writeUTF("GetLevel");
-					dout.writeUTF("UUID");
-					dout.writeLong(uuid.getMostSignificantBits());
-					dout.writeLong(uuid.getLeastSignificantBits());
-					dout.writeUTF("Level");
-					dout.writeInt(level);
-				} catch (IOException e1) {
-					e1.printStackTrace();
-				}
-				netmsg.sendData(server, "NLReturn", bout.toByteArray());
-			} else if(subchannel.equals("SetLevel")) {
-				if(!dataMap.containsKey("Level")) throw new IllegalArgumentException("Received SetLevel with no Level Data");
-				int level = (int) dataMap.get("Level");
-				pl.getLevelManager().setLevel(uuid, level);
-			} else if(subchannel.equals("AddExperience")) {
-				if(!dataMap.containsKey("Experience")) throw new IllegalArgumentException("Received AddExperience with no Experience Data");
-				long toAdd = (long) dataMap.get("Experience");
-				pl.getLevelManager().addExperience(uuid, toAdd);
-			} else if(subchannel.equals("GetExperience")) {
-				long exp = pl.getLevelManager().getExperience(uuid);
-				ByteArrayOutputStream bout = new ByteArrayOutputStream();
-				DataOutputStream dout = new DataOutputStream(bout);
-				try {
-					dout.writeUTF("SubChannel");
-					dout.writeUTF("GetExperience");
-					dout.writeUTF("UUID");
-					dout.writeLong(uuid.getMostSignificantBits());
-					dout.writeLong(uuid.getLeastSignificantBits());
-					dout.writeUTF("GetExperience");
-					dout.writeLong(exp);
-				} catch (IOException e1) {
-					e1.printStackTrace();
+			boolean correlated = msg.hasCorrelationId();
+			long correlationId = msg.getCorrelationId();
+			ServerInfo target = server;
+			// without a server, the player is connected to another proxy of the cluster, which passes the reply on
+			Consumer<byte[]> answer = target != null ? b -> netmsg.sendData(target, "NLReturn", b) : b -> cluster.forwardReply(addressee, b);
+			switch(subchannel) {
+			case GET_LEVEL:
+				getLevel(uuid).thenAccept(level -> {
+					NetworkMessage reply = new NetworkMessage()
+							.setSubChannel(SubChannel.GET_LEVEL)
+							.setUniqueId(uuid)
+							.setLevel(level);
+					if(correlated) reply.setCorrelationId(correlationId);
+					answer.accept(netmsg.encode(reply));
+				}).exceptionally(this::logError);
+				break;
+			case SET_LEVEL:
+				if(!msg.hasLevel()) throw new IllegalArgumentException("Received SetLevel with no Level Data");
+				setLevel(uuid, msg.getLevel()).exceptionally(this::logError);
+				break;
+			case ADD_EXPERIENCE:
+				if(!msg.hasExperience()) throw new IllegalArgumentException("Received AddExperience with no Experience Data");
+				pl.getExperienceCoalescer().add(uuid, msg.getExperience());
+				break;
+			case GET_EXPERIENCE:
+				getExperience(uuid).thenAccept(exp -> {
+					NetworkMessage reply = new NetworkMessage()
+							.setSubChannel(SubChannel.GET_EXPERIENCE)
+							.setUniqueId(uuid)
+							.setExperience(exp);
+					if(correlated) reply.setCorrelationId(correlationId);
+					answer.accept(netmsg.encode(reply));
+				}).exceptionally(this::logError);
+				break;
+			case GET_LEVELS:
+			case GET_EXPERIENCES:
+				List<UUID> uuids = msg.getUniqueIds();
+				// the other proxies' players are read from storage without caching them here, as their owner last wrote them
+				(cluster != null ? pl.getProfileCache().peekAll(uuids) : pl.getProfileCache().getAll(uuids)).thenAccept(profiles -> {
+					NetworkMessage reply = new NetworkMessage().setSubChannel(subchannel);
+					if(correlated) reply.setCorrelationId(correlationId);
+					// answers follow the order of the requested UUIDs
+					for(UUID u : uuids) {
+						PlayerProfile p = profiles.get(u);
+						reply.addUniqueId(u);
+						if(subchannel == SubChannel.GET_LEVELS) reply.addLevel(p.getLevel());
+						else reply.addExperience(p.getExperience());
+					}
+					answer.accept(netmsg.encode(reply));
+				}).exceptionally(this::logError);
+				break;
+			case GET_TOP:
+				int limit = msg.getLimit() <= 0 ? 10 : Math.min(msg.getLimit(), MAX_BULK);
+				NetworkMessage top = new NetworkMessage().setSubChannel(SubChannel.GET_TOP).setOffset(msg.getOffset());
+				if(correlated) top.setCorrelationId(correlationId);
+				for(Leaderboard.Entry e : pl.getLeaderboard().getTop(msg.getOffset(), limit)) {
+					top.addUniqueId(e.getUniqueId());
+					top.addExperience(e.getExperience());
 				}
-				netmsg.sendData(server, "NLReturn", bout.toByteArray());
+				answer.accept(netmsg.encode(top));
+				break;
+			case GET_RANK:
+				Leaderboard.Entry e = pl.getLeaderboard().getEntry(uuid);
+				NetworkMessage rank = new NetworkMessage()
+						.setSubChannel(SubChannel.GET_RANK)
+						.setUniqueId(uuid)
+						.setRank(e == null ? -1 : e.getRank())
+						.setExperience(e == null ? 0 : e.getExperience());
+				if(correlated) rank.setCorrelationId(correlationId);
+				answer.accept(netmsg.encode(rank));
+				break;
 			}
 		});
 	}
 	
-	public int getLevel(UUID uuid) {
-		Set<JsonElement> el = pl.getDataLoader().getData("uuid", new BsonString(uuid.toString()));
-		int level = 1;
-		if(el != null) {
-			for(JsonElement j : el) {
-				if(j.isJsonObject()) {
-					JsonObject jo = j.getAsJsonObject();
-					JsonElement levelEl = jo.get("level");
-					if(levelEl != null) {
-						level = levelEl.getAsInt();
-						break;
-					}
-				}
-			}
+	private <T> T logError(Throwable t) {
+		t.printStackTrace();
+		return null;
+	}
+	
+	/**
+	 * In cluster mode, a player owned by another proxy is read from storage without caching it,
+	 * so it doesn't miss the changes the owner writes.
+	 * @return the cached profile, read level and experience together while synchronized on it for a consistent pair
+	 */
+	public CompletableFuture<PlayerProfile> getProfile(UUID uuid) {
+		Cluster cluster = pl.getCluster();
+		if(cluster != null && !cluster.isOwner(uuid)) {
+			return pl.getProfileCache().peekAll(Collections.singletonList(uuid)).thenApply(profiles -> profiles.get(uuid));
 		}
-		if(level < 1) level = 1;
-		return level;
-	}
-	
-	public long getExperience(UUID uuid) {
-		Set<JsonElement> el = pl.getDataLoader().getData("uuid", new BsonString(uuid.toString()));
-		long exp = -1;
-		if(el != null) {
-			for(JsonElement j : el) {
-				if(j.isJsonObject()) {
-					JsonObject jo = j.getAsJsonObject();
-					JsonElement expEl = jo.get("experience");
-					if(expEl != null) {
-						exp = expEl.getAsLong();
-						break;
-					}
-				}
+		return pl.getProfileCache().get(uuid);
+	}
+	
+	public CompletableFuture<Integer> getLevel(UUID uuid) {
+		return getProfile(uuid).thenApply(PlayerProfile::getLevel);
+	}
+	
+	public CompletableFuture<Long> getExperience(UUID uuid) {
+		return getProfile(uuid).thenApply(PlayerProfile::getExperience);
+	}
+	
+	/**
+	 * In cluster mode, a player owned by another proxy has the change forwarded to it.
+	 * @return completes once the change is journaled, also while the storage is down, or once it is forwarded
+	 */
+	public CompletableFuture<Void> setLevel(UUID uuid, int lvl, String reason) {
+		Cluster cluster = pl.getCluster();
+		if(cluster != null) {
+			String owner = cluster.getOwner(uuid);
+			if(!owner.equals(cluster.getId())) {
+				NetworkMessage msg = new NetworkMessage()
+						.setSubChannel(SubChannel.SET_LEVEL)
+						.setUniqueId(uuid)
+						.setLevel(lvl)
+						.setReason(reason);
+				return forwarded(cluster.forward(owner, msg), owner);
 			}
 		}
-		if(exp < 0) exp = 0;
-		return exp;
+		return applyLevel(uuid, lvl, reason);
 	}
 	
-	public void setLevel(UUID uuid, int level, String reason) {
+	/**
+	 * Sets the level on this proxy, whether it owns the player or not.
+	 */
+	public CompletableFuture<Void> applyLevel(UUID uuid, int lvl, String reason) {
+		int level = Math.max(1, Math.min(lvl, NetworkLevel.getMaximumLevel()));
+		long exp = NetworkLevel.getMaximumExperience(level-1);
 		NetworkLevel nl = NetworkLevel.getLevelGroup(level);
 		sendLevelingMessage(uuid, MessageType.SETLEVEL, nl.formatLevel(level), reason == null ? "" : "&7(" + reason + "&7)");
-		pl.getDataLoader().setData("uuid", new BsonString(uuid.toString()), 
-				Arrays.asList(
-						new BsonElement("level", new BsonInt32(level)),
-						new BsonElement("experience", new BsonInt64(NetworkLevel.getMaximumExperience(level-1)))));
+		return pl.getProfileCache().modify(uuid, p -> {
+			p.set(level, exp);
+			pl.getLeaderboard().update(uuid, exp);
+			return pl.getProfileCache().journal(p, Journal.SET, level, exp);
+		}).handle((journaled, t) -> {
+			if(t == null) return journaled;
+			// the profile couldn't be loaded
+			return pl.getProfileCache().modifyUnloaded(uuid, Journal.SET, level, exp);
+		}).thenCompose(Function.identity());
 	}
 	
-	public void setLevel(UUID uuid, int level) {
-		setLevel(uuid, level, null);
+	public CompletableFuture<Void> setLevel(UUID uuid, int level) {
+		return setLevel(uuid, level, null);
 	}
 	
-	public void addExperience(UUID uuid, long toAdd) {
-		addExperience(uuid, toAdd, null);
+	public CompletableFuture<Void> addExperience(UUID uuid, long toAdd) {
+		return addExperience(uuid, toAdd, null);
 	}
 	
-	public void addExperience(UUID uuid, long toAdd, String reason) {
-		Set<JsonElement> el = pl.getDataLoader().getData("uuid", new BsonString(uuid.toString()));
-		long exp = -1;
-		int level = -1;
-		if(el != null) {
-			for(JsonElement j : el) {
-				if(j.isJsonObject()) {
-					JsonObject jo = j.getAsJsonObject();
-					JsonElement expEl = jo.get("experience");
-					if(expEl != null) {
-						exp = expEl.getAsLong();
-					}
-					JsonElement levelEl = jo.get("level");
-					if(levelEl != null) {
-						level = levelEl.getAsInt();
-					}
-					if(exp != -1 && level != -1) break;
-				}
+	/**
+	 * In cluster mode, a player owned by another proxy has the gain forwarded to it, 
+	 * where the multiplier is applied.
+	 * @return completes once the gain is journaled, also while the storage is down, or once it is forwarded
+	 */
+	public CompletableFuture<Void> addExperience(UUID uuid, long toAdd, String reason) {
+		Cluster cluster = pl.getCluster();
+		if(cluster != null) {
+			String owner = cluster.getOwner(uuid);
+			if(!owner.equals(cluster.getId())) {
+				NetworkMessage msg = new NetworkMessage()
+						.setSubChannel(SubChannel.ADD_EXPERIENCE)
+						.setUniqueId(uuid)
+						.setExperience(toAdd)
+						.setReason(reason);
+				return forwarded(cluster.forward(owner, msg), owner);
 			}
 		}
-		if(exp < 0) exp = 0;
-		if(level < 1) level = 1;
+		return applyExperience(uuid, toAdd, reason);
+	}
+	
+	/**
+	 * Adds the experience on this proxy, whether it owns the player or not.
+	 */
+	public CompletableFuture<Void> applyExperience(UUID uuid, long toAdd, String reason) {
 		toAdd = (long) (pl.getMultiplier() * toAdd);
 		
 		if(pl.getMultiplier() != 1.0 && reason == null) {
@@ -181,67 +259,123 @@ public class NetworkLevelManager {
 			reason = "";
 		}
 		
-		long total = exp + toAdd;
-		if(total < 0) total = 0;
-		long max = NetworkLevel.getMaximumExperience(level);
-		
-		sendLevelingMessage(uuid, MessageType.ADDEXPERIENCE, toAdd, reason);
-		
-		boolean leveledup = total >= max;
-		long min = NetworkLevel.getMaximumExperience(level - 1);
-		// Block de-leveling
-		if(total < min) total = min;
-		// Level up until its not past max
-		while(total >= max) {
-			max = NetworkLevel.getMaximumExperience(++level);
-			if(!pl.getMessages().getBoolean("only-send-last-levelup")) {
-				NetworkLevel nl = NetworkLevel.getLevelGroup(level);
-				sendLevelingMessage(uuid, MessageType.LEVELUP, nl.formatLevel(level));
+		long added = toAdd;
+		String desc = reason;
+		return pl.getProfileCache().modify(uuid, p -> {
+			long exp = p.getExperience();
+			int level = p.getLevel();
+			
+			long total = exp + added;
+			if(total < 0) total = 0;
+			
+			sendLevelingMessage(uuid, MessageType.ADDEXPERIENCE, added, desc);
+			
+			long min = NetworkLevel.getMaximumExperience(level - 1);
+			// Block de-leveling
+			if(total < min) total = min;
+			int newLevel = Math.max(level, NetworkLevel.levelForExperience(total));
+			if(newLevel > level) {
+				if(pl.getMessages().getBoolean("only-send-last-levelup")) {
+					NetworkLevel nl = NetworkLevel.getLevelGroup(newLevel);
+					sendLevelingMessage(uuid, MessageType.LEVELUP, nl.formatLevel(newLevel));
+				} else {
+					for(int l = level + 1; l <= newLevel; l++) {
+						NetworkLevel nl = NetworkLevel.getLevelGroup(l);
+						sendLevelingMessage(uuid, MessageType.LEVELUP, nl.formatLevel(l));
+					}
+				}
+				level = newLevel;
 			}
-		}
-		if(leveledup && pl.getMessages().getBoolean("only-send-last-levelup")) {
-			NetworkLevel nl = NetworkLevel.getLevelGroup(level);
-			sendLevelingMessage(uuid, MessageType.LEVELUP, nl.formatLevel(level));
-		}
-		
-		pl.getDataLoader().setData("uuid", new BsonString(uuid.toString()), 
-				Arrays.asList(
-						new BsonElement("experience", new BsonInt64(total)),
-						new BsonElement("level", new BsonInt32(level))));
+			
+			p.addExperience(level, total);
+			pl.getLeaderboard().update(uuid, total);
+			return pl.getProfileCache().journal(p, Journal.EXPERIENCE, level, total - exp);
+		}).handle((journaled, t) -> {
+			if(t == null) return journaled;
+			// the profile couldn't be loaded, gains are kept without their level-ups until it can be
+			if(added <= 0) return failed(t);
+			sendLevelingMessage(uuid, MessageType.ADDEXPERIENCE, added, desc);
+			return pl.getProfileCache().modifyUnloaded(uuid, Journal.EXPERIENCE, 0, added);
+		}).thenCompose(Function.identity());
+	}
+	
+	private static CompletableFuture<Void> forwarded(boolean sent, String owner) {
+		if(sent) return CompletableFuture.completedFuture(null);
+		return failed(new IllegalStateException("Couldn't forward the change to proxy " + owner));
+	}
+	
+	private static CompletableFuture<Void> failed(Throwable t) {
+		CompletableFuture<Void> f = new CompletableFuture<>();
+		f.completeExceptionally(t);
+		return f;
 	}
 	
 	/**
-	 * Will send when next online if offline.
+	 * Gains of online players go through the chat aggregator.
+	 * If the player is offline, gains and levels are kept in the notification store and summed up when they next log in.
 	 */
 	public void sendLevelingMessage(UUID uuid, MessageType msg, Object... args) {
 		ProxiedPlayer pp = pl.getProxy().getPlayer(uuid);
 		if(pp == null || !pp.isConnected()) {
-			pl.loginExec.put(uuid, p -> sendLevelingMessage(p, msg, args));
+			NotificationStore store = pl.getNotificationStore();
+			if(msg == MessageType.ADDEXPERIENCE) store.addExperience(uuid, ((Number) args[0]).longValue());
+			else if(msg == MessageType.LEVELUP || msg == MessageType.SETLEVEL) store.setLevel(uuid, String.valueOf(args[0]));
+			return;
+		}
+		ChatAggregator aggregator = pl.getChatAggregator();
+		if(msg == MessageType.ADDEXPERIENCE) {
+			aggregator.addExperience(pp, ((Number) args[0]).longValue(), String.valueOf(args[1]));
 			return;
 		}
+		// gains held so far are shown before the level they led to
+		aggregator.flush(uuid);
 		sendLevelingMessage(pp, msg, args);
 	}
 	
+	/**
+	 * Sends what happened while the player was offline as one message, if anything did.
+	 */
+	public void sendOfflineSummary(ProxiedPlayer p) {
+		NotificationStore.Summary s = pl.getNotificationStore().take(p.getUniqueId());
+		if(s == null) return;
+		if(s.getLevel() != null && s.getExperience() == 0) sendLevelingMessage(p, MessageType.OFFLINE_SET_LEVEL, s.getLevel());
+		else if(s.getLevel() != null) sendLevelingMessage(p, MessageType.OFFLINE_LEVEL, s.getExperience(), s.getLevel());
+		else if(s.getExperience() != 0) sendLevelingMessage(p, MessageType.OFFLINE_EXPERIENCE, s.getExperience());
+	}
+	
 	public void sendLevelingMessage(ProxiedPlayer p, MessageType msg, Object... args) {
-		String m = pl.getMessages().getString(msg.getConfigPath());
-		String f = String.format(m, args);
-		f = ChatColor.translateAlternateColorCodes('&', f);
-		p.sendMessage(TextComponent.fromLegacyText(f));
+		p.sendMessage(templates.get(msg).format(args));
 	}
 	
 	public static enum MessageType {
 		ADDEXPERIENCE("add-experience"), 
 		LEVELUP("level-up"),
-		SETLEVEL("set-level");
+		SETLEVEL("set-level"),
+		OFFLINE_EXPERIENCE("offline-experience", "&7(&2Keisu&aNetwork&7) While you were away you earned &2%+,d Experience&7!"),
+		OFFLINE_LEVEL("offline-level", "&7(&2Keisu&aNetwork&7) While you were away you earned &2%+,d Experience&7 and are now &r%s&7!"),
+		OFFLINE_SET_LEVEL("offline-set-level", "&7(&2Keisu&aNetwork&7) Your level changed to &r%s&7 while you were away!");
 		
 		private String configPath;
+		private String defaultMessage;
 		MessageType(String configPath) {
+			this(configPath, "");
+		}
+		
+		MessageType(String configPath, String defaultMessage) {
 			this.configPath = configPath;
+			this.defaultMessage = defaultMessage;
 		}
 		
 		public String getConfigPath() {
 			return configPath;
 		}
+		
+		/**
+		 * @return the message used when the config doesn't have one, for messages added after configs were written
+		 */
+		public String getDefaultMessage() {
+			return defaultMessage;
+		}
 	}
 	
 }
@@ -1,21 +1,23 @@
 package net.kjnine.networkleveling;
 
-import java.io.ByteArrayOutputStream;
-import java.io.DataOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.UUID;
-import java.util.function.Consumer;
-
-import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.Multimap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import net.kjnine.networkleveling.config.ConfigManager;
 import net.kjnine.networkleveling.data.DataLoader;
+import net.kjnine.networkleveling.data.Journal;
 import net.kjnine.networkleveling.data.MessagingAdapter;
-import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.kjnine.networkleveling.data.ProfileCache;
+import net.kjnine.networkleveling.data.SharedCache;
+import net.md_5.bungee.api.event.PlayerDisconnectEvent;
+import net.md_5.bungee.api.event.PostLoginEvent;
 import net.md_5.bungee.api.event.ServerConnectedEvent;
 import net.md_5.bungee.api.plugin.Listener;
 import net.md_5.bungee.api.plugin.Plugin;
@@ -27,7 +29,16 @@ public class NetworkLevelingPlugin extends Plugin implements Listener {
 	public static NetworkLevelingPlugin inst;
 	
 	private DataLoader dl;
+	private ProfileCache profileCache;
+	private Journal journal;
+	private SharedCache sharedCache;
+	private Cluster cluster;
+	private Leaderboard leaderboard;
 	private NetworkLevelManager levelManager;
+	private ExperienceCoalescer coalescer;
+	private NotificationStore notifications;
+	private ChatAggregator chatAggregator;
+	private MetadataPusher metadataPusher;
 	private ConfigManager configManager;
 	private Configuration config;
 	private Configuration messages;
@@ -35,8 +46,6 @@ public class NetworkLevelingPlugin extends Plugin implements Listener {
 	
 	private double multiplier = 1.0;
 	
-	public Multimap<UUID, Consumer<ProxiedPlayer>> loginExec = ArrayListMultimap.create();
-	
 	public Map<String, Integer> serverIds = new HashMap<>();
 	
 	@Override
@@ -61,29 +70,95 @@ public class NetworkLevelingPlugin extends Plugin implements Listener {
 			String raddress = redisConn.getString("address"),
 					rport = redisConn.getString("port"),
 					rpass = redisConn.getString("pass");
-			netMessaging = new MessagingAdapter.Redis(raddress, rport, rpass);
+			netMessaging = new MessagingAdapter.Redis(raddress, rport, rpass, 
+					redisConn.getInt("batch-size", 64), redisConn.getLong("batch-latency", 5));
 		} else {
 			netMessaging = new MessagingAdapter.PluginMessaging(getProxy());
 		}
+		netMessaging.setLegacyOutput(config.getBoolean("legacy-output", false));
 		
 		if(dt.equalsIgnoreCase("mongodb")) {
-			dl = new DataLoader.MongoDB(address, port, name, user, pass, table);
+			dl = new DataLoader.MongoDB(address, port, name, user, pass, table, 
+					dbSettings.getInt("bulk-size", 500), dbSettings.getLong("bulk-latency", 20), getLogger());
 		} else if(dt.equalsIgnoreCase("mysql")) {
 			dl = new DataLoader.MySQL(address, port, name, user, pass, table, 4, 12, 5000);
+		} else if(dt.equalsIgnoreCase("segment")) {
+			try {
+				dl = new DataLoader.SegmentFile(new File(getDataFolder(), "segments"), new File(getDataFolder(), "data"), 
+						config.getInt("segment-records", 262144), getLogger());
+			} catch (IOException e) {
+				throw new IllegalStateException("Couldn't open the segment store", e);
+			}
 		} else {
 			File data = new File(getDataFolder(), "data");
 			if(!data.exists() || !data.isDirectory()) data.mkdir();
-			dl = new DataLoader.FlatFile(data);
+			dl = new DataLoader.FlatFile(data, getLogger());
+		}
+		dl.setExecutor(dbSettings.getInt("io-threads", 4), dbSettings.getInt("io-queue", 10000));
+		
+		Configuration journalSettings = config.getSection("journal");
+		if(journalSettings.getBoolean("enabled", true)) {
+			try {
+				journal = new Journal(new File(getDataFolder(), "journal"), journalSettings.getLong("sync-interval", 10), getLogger());
+			} catch (IOException e) {
+				throw new IllegalStateException("Couldn't open the journal", e);
+			}
+		} else {
+			journal = new Journal();
+		}
+		
+		Configuration sharedSettings = config.getSection("shared-cache");
+		if(sharedSettings.getBoolean("enabled", false)) {
+			sharedCache = new SharedCache(redisConn.getString("address"), redisConn.getInt("port"), redisConn.getString("pass"), 
+					sharedSettings.getInt("ttl", 600), uuid -> profileCache.invalidate(uuid));
 		}
 		
 		multiplier = config.getDouble("xp-multiplier");
 		messages = config.getSection("messages");
-		NetworkLevel.init(config.getSection("level-groups"));
+		NetworkLevel.init(config.getSection("level-groups"), config.getInt("max-level", 10000));
+		
+		leaderboard = new Leaderboard();
+		dl.supplyAsync(() -> {
+			dl.forEachRecord(r -> leaderboard.load(r.getUniqueId(), r.getExperience()));
+			getLogger().info("Leaderboard loaded with " + leaderboard.size() + " players");
+			return null;
+		}).exceptionally(t -> {
+			t.printStackTrace();
+			return null;
+		});
+		
+		profileCache = new ProfileCache(this);
+		int replayed = profileCache.recover();
+		if(replayed > 0) getLogger().info("Replaying " + replayed + " journaled changes");
+		profileCache.start(config.getLong("cache.flush-interval", 5));
+		
+		notifications = new NotificationStore(new File(getDataFolder(), "notifications.dat"), config.getInt("notifications.max-players", 10000));
+		getProxy().getScheduler().schedule(this, notifications::save, 1, 1, TimeUnit.MINUTES);
 		
 		levelManager = new NetworkLevelManager(this);
+		chatAggregator = new ChatAggregator(this);
+		chatAggregator.start(config.getLong("notify-window", 500), config.getLong("notify-max-hold", 2000));
+		coalescer = new ExperienceCoalescer(this);
+		coalescer.start(config.getLong("coalesce-window", 250));
 		
+		// the cluster runs before messages are handled, so the first ones already go to their owners
+		Configuration clusterSettings = config.getSection("cluster");
+		if(clusterSettings.getBoolean("enabled", false)) {
+			if(netMessaging instanceof MessagingAdapter.Redis) {
+				String id = clusterSettings.getString("proxy-id", "");
+				cluster = new Cluster(this, netMessaging, id.isEmpty() ? UUID.randomUUID().toString() : id, 
+						redisConn.getString("address"), redisConn.getInt("port"), redisConn.getString("pass"), 
+						clusterSettings.getLong("heartbeat-interval", 1000), clusterSettings.getLong("heartbeat-timeout", 5000));
+				cluster.start();
+				getLogger().info("Joined the cluster as " + cluster.getId());
+			} else {
+				getLogger().warning("Cluster mode needs netmsg REDIS, running without it");
+			}
+		}
 		levelManager.registerMessaging(netMessaging);
 		
+		metadataPusher = new MetadataPusher(this, netMessaging, config.getBoolean("metadata-delta", false));
+		
 		getProxy().getPluginManager().registerListener(this, this);
 		
 		TestCommands cmds = new TestCommands(this);
@@ -98,7 +173,12 @@ public class NetworkLevelingPlugin extends Plugin implements Listener {
 		config = configManager.getConfig("config");
 		multiplier = config.getDouble("xp-multiplier");
 		messages = config.getSection("messages");
-		NetworkLevel.init(config.getSection("level-groups"));
+		NetworkLevel.init(config.getSection("level-groups"), config.getInt("max-level", 10000));
+		levelManager.compileTemplates();
+		chatAggregator.start(config.getLong("notify-window", 500), config.getLong("notify-max-hold", 2000));
+		coalescer.start(config.getLong("coalesce-window", 250));
+		metadataPusher.setDelta(config.getBoolean("metadata-delta", false));
+		netMessaging.setLegacyOutput(config.getBoolean("legacy-output", false));
 	}
 	
 	public double getMultiplier() {
@@ -120,36 +200,97 @@ public class NetworkLevelingPlugin extends Plugin implements Listener {
 		return dl;
 	}
 	
+	public ProfileCache getProfileCache() {
+		return profileCache;
+	}
+	
+	public ChatAggregator getChatAggregator() {
+		return chatAggregator;
+	}
+	
+	public NotificationStore getNotificationStore() {
+		return notifications;
+	}
+	
+	public Journal getJournal() {
+		return journal;
+	}
+	
+	/**
+	 * @return the cache shared with the other proxies, or null if it's disabled
+	 */
+	public SharedCache getSharedCache() {
+		return sharedCache;
+	}
+	
+	/**
+	 * @return the cluster this proxy is part of, or null if cluster mode is off
+	 */
+	public Cluster getCluster() {
+		return cluster;
+	}
+	
+	public Leaderboard getLeaderboard() {
+		return leaderboard;
+	}
+	
 	public NetworkLevelManager getLevelManager() {
 		return levelManager;
 	}
 	
+	public ExperienceCoalescer getExperienceCoalescer() {
+		return coalescer;
+	}
+	
 	public Configuration getMessages() {
 		return messages;
 	}
 	
 	@EventHandler
 	public void onConnected(ServerConnectedEvent e) {
-		ByteArrayOutputStream bout = new ByteArrayOutputStream();
-		DataOutputStream dout = new DataOutputStream(bout);
-		try {
-			dout.writeUTF("UUID");
-			UUID u = e.getPlayer().getUniqueId();
-			dout.writeLong(u.getMostSignificantBits());
-			dout.writeLong(u.getLeastSignificantBits());
-			dout.writeUTF("Level");
-			dout.writeInt(levelManager.getLevel(u));
-			dout.writeUTF("Experience");
-			dout.writeLong(levelManager.getExperience(u));
-		} catch (IOException e1) {
-			e1.printStackTrace();
-		}
-		netMessaging.sendData(e.getServer().getInfo(), "NLMetadata", bout.toByteArray());
+		metadataPusher.push(e.getPlayer().getUniqueId(), e.getServer().getInfo()).exceptionally(t -> {
+			t.printStackTrace();
+			return false;
+		});
+	}
+	
+	@EventHandler
+	public void onPostLogin(PostLoginEvent e) {
+		levelManager.sendOfflineSummary(e.getPlayer());
+	}
+	
+	@EventHandler
+	public void onDisconnect(PlayerDisconnectEvent e) {
+		profileCache.flush(e.getPlayer().getUniqueId());
+		metadataPusher.forget(e.getPlayer().getUniqueId());
 	}
 	
 	@Override
 	public void onDisable() {
+		// the held gains are applied before their messages are sent and the cache and journal close
+		try {
+			coalescer.close().get(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException | TimeoutException e) {
+			getLogger().warning("Held experience wasn't applied before shutting down: " + e);
+		}
+		chatAggregator.close();
+		notifications.save();
+		profileCache.close();
+		journal.close();
+		// leaves once this proxy's players are stored, so their new owners load them up to date
+		if(cluster != null) cluster.close();
+		if(sharedCache != null) sharedCache.close();
+		dl.shutdownExecutor();
 		dl.close();
+		if(netMessaging instanceof Closeable) {
+			try {
+				((Closeable) netMessaging).close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
 	}
 	
 }
@@ -0,0 +1,173 @@
+package net.kjnine.networkleveling;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Leveling notifications for players who were offline when they happened, sent as one summary on their next login.
+ * Gains are added together and only the last level reached is kept, so a player takes the same space however much happened.
+ * Holds at most maxPlayers players, the ones who got their first notification longest ago are dropped first.
+ * Saved to a file on every save and on close, and loaded again on start.
+ */
+public class NotificationStore {
+
+	private static final int MAGIC = 0x4E4C4E53;
+
+	/**
+	 * What happened to a player while they were offline.
+	 */
+	public static final class Summary {
+
+		private long experience;
+		private int gains;
+		private String level;
+
+		/**
+		 * @return the experience gained in total
+		 */
+		public long getExperience() {
+			return experience;
+		}
+
+		/**
+		 * @return how many gains were added together
+		 */
+		public int getGains() {
+			return gains;
+		}
+
+		/**
+		 * @return the formatted last level reached or set, or null if the level didn't change
+		 */
+		public String getLevel() {
+			return level;
+		}
+
+	}
+
+	private final File file;
+	private final int maxPlayers;
+	// guarded by this
+	private final Map<UUID, Summary> pending;
+	private boolean dirty;
+
+	/**
+	 * @param maxPlayers most players with pending notifications
+	 */
+	public NotificationStore(File file, int maxPlayers) {
+		this.file = file;
+		this.maxPlayers = Math.max(1, maxPlayers);
+		this.pending = new LinkedHashMap<UUID, Summary>() {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<UUID, Summary> eldest) {
+				return size() > NotificationStore.this.maxPlayers;
+			}
+		};
+		load();
+	}
+
+	public synchronized void addExperience(UUID uuid, long experience) {
+		Summary s = pending.computeIfAbsent(uuid, u -> new Summary());
+		s.experience += experience;
+		s.gains++;
+		dirty = true;
+	}
+
+	/**
+	 * @param level the formatted level the player is now at
+	 */
+	public synchronized void setLevel(UUID uuid, String level) {
+		pending.computeIfAbsent(uuid, u -> new Summary()).level = level;
+		dirty = true;
+	}
+
+	/**
+	 * @return the player's pending notifications, removed from the store, or null if there are none
+	 */
+	public synchronized Summary take(UUID uuid) {
+		Summary s = pending.remove(uuid);
+		if(s != null) dirty = true;
+		return s;
+	}
+
+	public synchronized int size() {
+		return pending.size();
+	}
+
+	private synchronized void load() {
+		if(!file.exists()) return;
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+			if(in.readInt() != MAGIC) return;
+			int count = in.readInt();
+			for(int i = 0; i < count; i++) {
+				UUID uuid = new UUID(in.readLong(), in.readLong());
+				Summary s = new Summary();
+				s.experience = in.readLong();
+				s.gains = in.readInt();
+				s.level = in.readBoolean() ? in.readUTF() : null;
+				pending.put(uuid, s);
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Writes the store to a temporary file and moves it over the old one, if anything changed since the last save.
+	 */
+	public void save() {
+		// saves run one at a time, so an older snapshot never replaces a newer one
+		synchronized(file) {
+			List<Map.Entry<UUID, Summary>> entries;
+			synchronized(this) {
+				if(!dirty) return;
+				dirty = false;
+				entries = new ArrayList<>(pending.size());
+				for(Map.Entry<UUID, Summary> e : pending.entrySet()) {
+					Summary copy = new Summary();
+					copy.experience = e.getValue().experience;
+					copy.gains = e.getValue().gains;
+					copy.level = e.getValue().level;
+					entries.add(new AbstractMap.SimpleEntry<>(e.getKey(), copy));
+				}
+			}
+			File tmp = new File(file.getPath() + ".tmp");
+			try {
+				try(DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+					out.writeInt(MAGIC);
+					out.writeInt(entries.size());
+					for(Map.Entry<UUID, Summary> e : entries) {
+						out.writeLong(e.getKey().getMostSignificantBits());
+						out.writeLong(e.getKey().getLeastSignificantBits());
+						out.writeLong(e.getValue().experience);
+						out.writeInt(e.getValue().gains);
+						out.writeBoolean(e.getValue().level != null);
+						if(e.getValue().level != null) out.writeUTF(e.getValue().level);
+					}
+				}
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				e.printStackTrace();
+				synchronized(this) {
+					dirty = true;
+				}
+			}
+		}
+	}
+
+}
@@ -1,6 +1,11 @@
 package net.kjnine.networkleveling;
 
 import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
 
 import net.md_5.bungee.api.ChatColor;
 import net.md_5.bungee.api.CommandSender;
@@ -11,6 +16,23 @@ import net.md_5.bungee.api.plugin.Command;
 public class TestCommands extends Command {
 
 	private NetworkLevelingPlugin pl;
+	// the last range query of each sender, continued by /nl range next
+	private Map<String, RangePage> ranges = new ConcurrentHashMap<>();
+	
+	private static final class RangePage {
+		
+		final int min, max, count;
+		// the last entry shown, the next page seeks past it
+		final JsonObject last;
+		
+		RangePage(int min, int max, int count, JsonObject last) {
+			this.min = min;
+			this.max = max;
+			this.count = count;
+			this.last = last;
+		}
+		
+	}
 	
 	public TestCommands(NetworkLevelingPlugin pl) {
 		super("netlevel", "netlevel.test", "nl");
@@ -24,7 +46,7 @@ public class TestCommands extends Command {
 			return;
 		}
 		if(args.length == 0) {
-			sender.sendMessage(new TextComponent("/nl <addxp|setlvl|getlvl|getxp|multiply|desc|reload>"));
+			sender.sendMessage(new TextComponent("/nl <addxp|setlvl|getlvl|getxp|top|rank|range|multiply|desc|reload>"));
 			return;
 		}
 		switch(args[0].toLowerCase()) {
@@ -36,6 +58,15 @@ public class TestCommands extends Command {
 		case "getxp":
 			subcommandGetPlayer(sender, args);
 			break;
+		case "top":
+			subcommandTop(sender, args);
+			break;
+		case "rank":
+			subcommandRank(sender, args);
+			break;
+		case "range":
+			subcommandRange(sender, args);
+			break;
 		case "multiply":
 			subcommandMultiplier(sender, args);
 			break;
@@ -48,7 +79,7 @@ public class TestCommands extends Command {
 			break;
 		default:
 			sender.sendMessage(new TextComponent("[NetworkLeveling] Unknown SubCommand"));
-			sender.sendMessage(new TextComponent("/nl <addxp|setlvl|getlvl|getxp|multiply|desc|reload>"));
+			sender.sendMessage(new TextComponent("/nl <addxp|setlvl|getlvl|getxp|top|rank|range|multiply|desc|reload>"));
 		}
 	}
 	
@@ -84,13 +115,88 @@ public class TestCommands extends Command {
 			return;
 		}
 		if(args[0].equalsIgnoreCase("getxp")) {
-			long exp = pl.getLevelManager().getExperience(t.getUniqueId());
-			sender.sendMessage(new TextComponent(String.format("[NetworkLeveling] %s has %,d Total XP", t.getDisplayName(), exp)));
+			pl.getLevelManager().getExperience(t.getUniqueId()).thenAccept(exp -> 
+				sender.sendMessage(new TextComponent(String.format("[NetworkLeveling] %s has %,d Total XP", t.getDisplayName(), exp))));
 		} else if(args[0].equalsIgnoreCase("getlvl")) {
-			int lvl = pl.getLevelManager().getLevel(t.getUniqueId());
-			NetworkLevel nl = NetworkLevel.getLevelGroup(lvl);
-			sender.sendMessage(TextComponent.fromLegacyText(String.format("[NetworkLeveling] %s is ", t.getDisplayName(), nl.formatLevel(lvl))));
+			pl.getLevelManager().getLevel(t.getUniqueId()).thenAccept(lvl -> {
+				NetworkLevel nl = NetworkLevel.getLevelGroup(lvl);
+				sender.sendMessage(TextComponent.fromLegacyText(String.format("[NetworkLeveling] %s is ", t.getDisplayName(), nl.formatLevel(lvl))));
+			});
+		}
+	}
+	
+	private void subcommandTop(CommandSender sender, String[] args) {
+		int count = args.length >= 2 ? Integer.parseInt(args[1]) : 10;
+		int page = args.length >= 3 ? Integer.parseInt(args[2]) : 1;
+		count = Math.max(1, Math.min(count, 100));
+		page = Math.max(1, page);
+		sender.sendMessage(new TextComponent(String.format("[NetworkLeveling] Top Players (Page %,d)", page)));
+		for(Leaderboard.Entry e : pl.getLeaderboard().getTop((page - 1) * count, count)) {
+			ProxiedPlayer p = pl.getProxy().getPlayer(e.getUniqueId());
+			String name = p == null ? e.getUniqueId().toString() : p.getDisplayName();
+			sender.sendMessage(new TextComponent(String.format("#%,d %s - %,d XP", e.getRank(), name, e.getExperience())));
+		}
+	}
+	
+	private void subcommandRank(CommandSender sender, String[] args) {
+		if(args.length <= 1) {
+			sender.sendMessage(new TextComponent("/nl " + args[0] + " <player>"));
+			return;
 		}
+		ProxiedPlayer t = pl.getProxy().getPlayer(args[1]);
+		if(t == null || !t.isConnected()) {
+			sender.sendMessage(new TextComponent("[NetworkLeveling] Unknown Player"));
+			return;
+		}
+		Leaderboard.Entry e = pl.getLeaderboard().getEntry(t.getUniqueId());
+		if(e == null) {
+			sender.sendMessage(new TextComponent(String.format("[NetworkLeveling] %s is not ranked", t.getDisplayName())));
+			return;
+		}
+		sender.sendMessage(new TextComponent(String.format("[NetworkLeveling] %s is ranked #%,d with %,d Total XP", t.getDisplayName(), e.getRank(), e.getExperience())));
+	}
+	
+	private void subcommandRange(CommandSender sender, String[] args) {
+		if(args.length == 2 && args[1].equalsIgnoreCase("next")) {
+			RangePage prev = ranges.get(sender.getName());
+			if(prev == null || prev.last == null) {
+				sender.sendMessage(new TextComponent("[NetworkLeveling] No more Players in this Range"));
+				return;
+			}
+			sendRange(sender, prev.min, prev.max, prev.count, prev.last);
+			return;
+		}
+		if(args.length <= 2) {
+			sender.sendMessage(new TextComponent("/nl " + args[0] + " <min level> <max level> [count]"));
+			sender.sendMessage(new TextComponent("/nl " + args[0] + " next"));
+			return;
+		}
+		int min = Integer.parseInt(args[1]), max = Integer.parseInt(args[2]);
+		int count = args.length >= 4 ? Math.max(1, Math.min(Integer.parseInt(args[3]), 100)) : 10;
+		sendRange(sender, min, max, count, null);
+	}
+	
+	/**
+	 * Sends one page and keeps its last entry, so the next page seeks past it instead of skipping an offset.
+	 * @param after the last entry of the previous page, or null for the first
+	 */
+	private void sendRange(CommandSender sender, int min, int max, int count, JsonObject after) {
+		pl.getDataLoader().getDataSortedAsync("level", min, max, after, count).thenAccept(page -> {
+			sender.sendMessage(new TextComponent(String.format("[NetworkLeveling] Players from Level %,d to %,d", min, max)));
+			JsonObject last = null;
+			for(JsonElement j : page) {
+				JsonObject jo = j.getAsJsonObject();
+				sender.sendMessage(new TextComponent(String.format("%s - Level %,d, %,d XP", 
+						jo.get("uuid").getAsString(), jo.get("level").getAsInt(), jo.get("experience").getAsLong())));
+				last = jo;
+			}
+			// a short page was the last one
+			ranges.put(sender.getName(), new RangePage(min, max, count, page.size() < count ? null : last));
+			if(page.size() == count) sender.sendMessage(new TextComponent("[NetworkLeveling] /nl range next for more"));
+		}).exceptionally(t -> {
+			t.printStackTrace();
+			return null;
+		});
 	}
 	
 	private void subcommandMultiplier(CommandSender sender, String[] args) {
@@ -6,33 +6,82 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.sql.Connection;
+import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.sql.Timestamp;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
 
 import org.bson.BsonDocument;
 import org.bson.BsonElement;
+import org.bson.BsonString;
 import org.bson.BsonValue;
 import org.bson.Document;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.conversions.Bson;
 
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import com.google.gson.JsonParser;
 import com.google.gson.stream.JsonReader;
 import com.mongodb.ConnectionString;
+import com.mongodb.MongoBulkWriteException;
 import com.mongodb.MongoClientSettings;
 import com.mongodb.MongoCredential;
-import com.mongodb.client.FindIterable;
+import com.mongodb.MongoException;
+import com.mongodb.bulk.BulkWriteError;
 import com.mongodb.client.MongoClient;
 import com.mongodb.client.MongoClients;
 import com.mongodb.client.MongoCollection;
-import com.mongodb.client.MongoDatabase;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.IndexOptions;
+import com.mongodb.client.model.Indexes;
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.Sorts;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.Updates;
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 
@@ -44,8 +93,54 @@ public abstract class DataLoader implements Closeable {
 	
 	private DataType type;
 	
+	private ExecutorService ioExecutor;
+	
 	public DataLoader(DataType dataType) {
 		type = dataType;
+		setExecutor(1, 1000);
+	}
+	
+	/**
+	 * Replaces the executor the async methods run on. 
+	 * Tasks submitted while the queue is full complete exceptionally instead of blocking the caller.
+	 * @param threads the number of I/O threads
+	 * @param queueSize the maximum number of waiting tasks
+	 */
+	public void setExecutor(int threads, int queueSize) {
+		ExecutorService old = ioExecutor;
+		AtomicInteger count = new AtomicInteger();
+		ioExecutor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS, 
+				new ArrayBlockingQueue<>(queueSize), r -> {
+					Thread t = new Thread(r, "NetworkLeveling IO #" + count.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				});
+		if(old != null) old.shutdown();
+	}
+	
+	/**
+	 * Stops accepting async tasks and waits for the queued ones to finish.
+	 */
+	public void shutdownExecutor() {
+		ioExecutor.shutdown();
+		try {
+			ioExecutor.awaitTermination(30, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Runs the task on the I/O executor.
+	 */
+	public <T> CompletableFuture<T> supplyAsync(Supplier<T> task) {
+		try {
+			return CompletableFuture.supplyAsync(task, ioExecutor);
+		} catch(RejectedExecutionException e) {
+			CompletableFuture<T> f = new CompletableFuture<>();
+			f.completeExceptionally(e);
+			return f;
+		}
 	}
 	
 	public DataType getType() {
@@ -68,7 +163,8 @@ public abstract class DataLoader implements Closeable {
 	public static enum DataType {
 		MONGODB(MongoDB.class), 
 		MYSQL(MySQL.class), 
-		FLATFILE(FlatFile.class);
+		FLATFILE(FlatFile.class),
+		SEGMENT(SegmentFile.class);
 		
 		private Class<?> clazz;
 		DataType(Class<?> clazz) {
@@ -85,18 +181,203 @@ public abstract class DataLoader implements Closeable {
 	 */
 	public abstract Set<JsonElement> getData(String key, BsonValue value);
 	
+	/**
+	 * Streams every stored entry to the action, each including its uuid.
+	 * Blocking, used to build in-memory indexes on startup.
+	 */
+	public abstract void forEachData(Consumer<JsonElement> action);
+	
+	/**
+	 * Gets one page of entries ordered by a numeric field from highest to lowest, ties by uuid.
+	 * Pages are found by seeking past the last entry of the previous page instead of skipping an offset,
+	 * so later pages cost as much as the first.
+	 * @param field the field to order by, level or experience
+	 * @param min the lowest value of the field to include
+	 * @param max the highest value of the field to include
+	 * @param after the last entry of the previous page, or null for the first page
+	 * @param limit the most entries to return
+	 * @return the entries in order, each including its uuid
+	 */
+	public abstract List<JsonElement> getDataSorted(String field, long min, long max, JsonObject after, int limit);
+	
 	/**
 	 * @return finds first where keyvalue matches value, then sets the elements
 	 */
 	public abstract boolean setData(String keyWhere, BsonValue valueWhere, List<BsonElement> elements);
 	
+	/**
+	 * @return the stored record of the player, or null if there is none or it couldn't be read
+	 */
+	public abstract PlayerRecord getRecord(UUID uuid);
+	
+	/**
+	 * @return the stored records of the players that have one, or null if they couldn't be read
+	 */
+	public abstract Map<UUID, PlayerRecord> getRecords(Collection<UUID> uuids);
+	
+	/**
+	 * Writes the level and experience of the record, creating it if it doesn't exist.
+	 */
+	public abstract boolean setRecord(PlayerRecord record);
+	
+	/**
+	 * Writes only the level of the player, creating the record if it doesn't exist.
+	 */
+	public abstract boolean setLevel(UUID uuid, int level);
+	
+	/**
+	 * Atomically adds delta to the experience of the player, creating the record if it doesn't exist.
+	 * @return the new experience, or -1 if it couldn't be written
+	 */
+	public abstract long incrementExperience(UUID uuid, long delta);
+	
+	/**
+	 * {@link #setRecord(PlayerRecord)} for many players, by default one at a time.
+	 * @return whether each record was written, in order
+	 */
+	public boolean[] setRecords(List<PlayerRecord> records) {
+		boolean[] out = new boolean[records.size()];
+		for(int i = 0; i < out.length; i++) out[i] = setRecord(records.get(i));
+		return out;
+	}
+	
+	/**
+	 * {@link #setLevel(UUID, int)} for many players, by default one at a time.
+	 * @return whether each level was written, in order
+	 */
+	public boolean[] setLevels(List<UUID> uuids, int[] levels) {
+		boolean[] out = new boolean[uuids.size()];
+		for(int i = 0; i < out.length; i++) out[i] = setLevel(uuids.get(i), levels[i]);
+		return out;
+	}
+	
+	/**
+	 * {@link #incrementExperience(UUID, long)} for many players, by default one at a time.
+	 * @return the new experience of each player, -1 where it couldn't be written
+	 */
+	public long[] incrementExperience(List<UUID> uuids, long[] deltas) {
+		long[] out = new long[uuids.size()];
+		for(int i = 0; i < out.length; i++) out[i] = incrementExperience(uuids.get(i), deltas[i]);
+		return out;
+	}
+	
+	/**
+	 * Streams every stored record to the action, by default converted from {@link #forEachData(Consumer)}.
+	 */
+	public void forEachRecord(Consumer<PlayerRecord> action) {
+		forEachData(j -> {
+			if(!j.isJsonObject()) return;
+			JsonObject jo = j.getAsJsonObject();
+			if(!jo.has("uuid")) return;
+			try {
+				action.accept(new PlayerRecord(UUID.fromString(jo.get("uuid").getAsString()), 
+						jo.has("level") ? jo.get("level").getAsInt() : 1, 
+						jo.has("experience") ? jo.get("experience").getAsLong() : 0));
+			} catch(IllegalArgumentException e) {
+				// not a player entry
+			}
+		});
+	}
+	
+	/**
+	 * {@link #getRecords(Collection)} on the I/O executor.
+	 */
+	public CompletableFuture<Map<UUID, PlayerRecord>> getRecordsAsync(Collection<UUID> uuids) {
+		return supplyAsync(() -> getRecords(uuids));
+	}
+	
+	/**
+	 * {@link #getData(String, BsonValue)} on the I/O executor.
+	 */
+	public CompletableFuture<Set<JsonElement>> getDataAsync(String key, BsonValue value) {
+		return supplyAsync(() -> getData(key, value));
+	}
+	
+	/**
+	 * {@link #getDataSorted(String, long, long, JsonObject, int)} on the I/O executor.
+	 */
+	public CompletableFuture<List<JsonElement>> getDataSortedAsync(String field, long min, long max, JsonObject after, int limit) {
+		return supplyAsync(() -> getDataSorted(field, min, max, after, limit));
+	}
+	
+	/**
+	 * {@link #setData(String, BsonValue, List)} on the I/O executor.
+	 */
+	public CompletableFuture<Boolean> setDataAsync(String keyWhere, BsonValue valueWhere, List<BsonElement> elements) {
+		return supplyAsync(() -> setData(keyWhere, valueWhere, elements));
+	}
+	
+	/**
+	 * Only indexed fields can be sorted on, this also keeps field names out of SQL strings.
+	 */
+	private static void checkSortField(String field) {
+		if(!field.equals("level") && !field.equals("experience")) 
+			throw new IllegalArgumentException("Can't sort by " + field);
+	}
+	
+	/**
+	 * Player documents are decoded straight into {@link PlayerRecord}s by a registered {@link PlayerRecordCodec},
+	 * reading only the uuid, level and experience fields.
+	 * Batch writes are queued for one writer thread and sent as unordered bulk writes of upserts, 
+	 * collected until the bulk size is reached or the oldest waited the bulk latency,
+	 * so the writes of flushes running close together share their round trips.
+	 * Increments are compare-and-set on the experience read before them, so their totals stay exact when another proxy writes the player too.
+	 */
 	public static class MongoDB extends DataLoader {
+		
+		private static final Bson RECORD_FIELDS = Projections.fields(Projections.include("uuid", "level", "experience"), Projections.excludeId());
+		private static final int DUPLICATE_KEY = 11000;
 
 		private MongoClient mongoClient;
+		private MongoCollection<Document> collection;
+		private MongoCollection<PlayerRecord> records;
+		
+		private final int bulkSize;
+		private final long bulkLatency;
+		private final LinkedBlockingQueue<PendingUpdate> pending = new LinkedBlockingQueue<>(100000);
+		private Thread bulkThread;
+		private volatile boolean closed;
+		private final Logger logger;
+		
+		/**
+		 * One queued upsert of a player, completed with 1 or the new experience once written, or -1 if it failed.
+		 */
+		private static final class PendingUpdate {
+			final String uuid;
+			// the update of a set, null for an increment
+			final Bson update;
+			final long delta;
+			final CompletableFuture<Long> result = new CompletableFuture<>();
+			
+			PendingUpdate(String uuid, Bson update) {
+				this.uuid = uuid;
+				this.update = update;
+				this.delta = 0;
+			}
+			
+			PendingUpdate(String uuid, long delta) {
+				this.uuid = uuid;
+				this.update = null;
+				this.delta = delta;
+			}
+		}
 		
 		public MongoDB(String address, int port, 
 				String name, String user, String pass, String table) {
+			this(address, port, name, user, pass, table, 500, 20, Logger.getLogger(MongoDB.class.getName()));
+		}
+		
+		/**
+		 * @param bulkSize the most updates sent in one bulk write
+		 * @param bulkLatency milliseconds a queued update may wait to be sent with others
+		 * @param logger where failed writes are reported
+		 */
+		public MongoDB(String address, int port, 
+				String name, String user, String pass, String table, int bulkSize, long bulkLatency, Logger logger) {
 			super(DataType.MONGODB);
+			this.bulkSize = Math.max(1, bulkSize);
+			this.bulkLatency = bulkLatency;
+			this.logger = logger;
 			super.setConnectionSettings(address, String.valueOf(port), name, user, pass, table);
 			MongoCredential credential = MongoCredential.createCredential(user, name, pass.toCharArray());
 
@@ -104,37 +385,328 @@ public abstract class DataLoader implements Closeable {
 		    		.applyConnectionString(super.connString)
 		            .credential(credential)
 		            .applyToSslSettings(builder -> builder.enabled(true))
+		            .codecRegistry(CodecRegistries.fromRegistries(
+		            		MongoClientSettings.getDefaultCodecRegistry(), 
+		            		CodecRegistries.fromCodecs(new PlayerRecordCodec())))
 		            .build();
 
 		    mongoClient = MongoClients.create(settings);
+		    collection = mongoClient.getDatabase(super.dbName).getCollection(super.tableName);
+		    records = collection.withDocumentClass(PlayerRecord.class);
+		    createIndexes();
+		    bulkThread = new Thread(this::runBulkWriter, "NetworkLeveling Mongo Bulk Writer");
+		    bulkThread.setDaemon(true);
+		    bulkThread.start();
+		}
+		
+		/**
+		 * Sends the queued updates in bulk writes until closed, then sends what is left.
+		 */
+		private void runBulkWriter() {
+			List<PendingUpdate> batch = new ArrayList<>(bulkSize);
+			while(!closed) {
+				try {
+					PendingUpdate first = pending.take();
+					batch.add(first);
+					long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(bulkLatency);
+					pending.drainTo(batch, bulkSize - batch.size());
+					while(batch.size() < bulkSize) {
+						long wait = deadline - System.nanoTime();
+						if(wait <= 0) break;
+						PendingUpdate next = pending.poll(wait, TimeUnit.NANOSECONDS);
+						if(next == null) break;
+						batch.add(next);
+						pending.drainTo(batch, bulkSize - batch.size());
+					}
+					write(batch);
+					batch.clear();
+				} catch(InterruptedException e) {
+					break;
+				}
+			}
+			pending.drainTo(batch);
+			for(int i = 0; i < batch.size(); i += bulkSize) write(batch.subList(i, Math.min(batch.size(), i + bulkSize)));
+		}
+		
+		/**
+		 * Sends the updates as one unordered bulk write and completes each with its own outcome.
+		 * The experience of the incremented players is read with one query first, and each increment only 
+		 * applies if the experience is still the one read, so its total is known without reading it back. 
+		 * An increment that lost against another write fails on the unique uuid and is retried on its own.
+		 */
+		private void write(List<PendingUpdate> batch) {
+			if(batch.isEmpty()) return;
+			long[] out = new long[batch.size()];
+			// experience of the incremented players, null for those without any
+			Map<String, Long> before = new HashMap<>();
+			boolean readFailed = false;
+			List<String> reads = new ArrayList<>();
+			for(PendingUpdate u : batch) if(u.update == null) reads.add(u.uuid);
+			if(!reads.isEmpty()) {
+				try {
+					collection.find(Filters.in("uuid", reads)).projection(Projections.include("uuid", "experience")).forEach(d -> {
+						Number n = d.get("experience", Number.class);
+						before.put(d.getString("uuid"), n == null ? null : n.longValue());
+					});
+				} catch(MongoException e) {
+					logger.warning("Couldn't read the experience of " + reads.size() + " players to increment it: " + e.getMessage());
+					readFailed = true;
+				}
+			}
+			List<UpdateOneModel<Document>> models = new ArrayList<>(batch.size());
+			// the batch index of each model
+			int[] index = new int[batch.size()];
+			UpdateOptions upsert = new UpdateOptions().upsert(true);
+			for(int i = 0; i < out.length; i++) {
+				PendingUpdate u = batch.get(i);
+				Bson filter = Filters.eq("uuid", u.uuid);
+				Bson update = u.update;
+				if(update == null) {
+					if(readFailed) {
+						out[i] = -1;
+						continue;
+					}
+					Long exp = before.get(u.uuid);
+					filter = Filters.and(filter, exp == null ? Filters.exists("experience", false) : Filters.eq("experience", exp));
+					update = Updates.inc("experience", u.delta);
+					out[i] = (exp == null ? 0 : exp) + u.delta;
+				} else out[i] = 1;
+				index[models.size()] = i;
+				models.add(new UpdateOneModel<>(filter, update, upsert));
+			}
+			List<String> failed = new ArrayList<>();
+			String cause = null;
+			try {
+				if(!models.isEmpty()) collection.bulkWrite(models, new BulkWriteOptions().ordered(false));
+			} catch(MongoBulkWriteException e) {
+				for(BulkWriteError err : e.getWriteErrors()) {
+					int i = index[err.getIndex()];
+					PendingUpdate u = batch.get(i);
+					if(u.update == null && err.getCode() == DUPLICATE_KEY) {
+						out[i] = incrementExperience(UUID.fromString(u.uuid), u.delta);
+						if(out[i] >= 0) continue;
+					}
+					out[i] = -1;
+					failed.add(u.uuid);
+					cause = err.getMessage();
+				}
+			} catch(MongoException e) {
+				for(int m = 0; m < models.size(); m++) {
+					out[index[m]] = -1;
+					failed.add(batch.get(index[m]).uuid);
+				}
+				cause = e.getMessage();
+			}
+			if(!failed.isEmpty()) 
+				logger.warning("Couldn't write " + failed.size() + " of " + batch.size() + " players: " + String.join(", ", failed) + " (" + cause + ")");
+			for(int i = 0; i < out.length; i++) batch.get(i).result.complete(out[i]);
+		}
+		
+		private CompletableFuture<Long> queue(PendingUpdate u) {
+			if(closed || !pending.offer(u)) u.result.complete(-1L);
+			return u.result;
+		}
+		
+		/**
+		 * Queues the updates for the bulk writer and waits for them.
+		 * @return the outcome of each update, in order
+		 */
+		private long[] writeAll(List<PendingUpdate> batch) {
+			for(PendingUpdate u : batch) queue(u);
+			long[] out = new long[batch.size()];
+			for(int i = 0; i < out.length; i++) out[i] = batch.get(i).result.join();
+			return out;
+		}
+		
+		private void createIndexes() {
+			try {
+				collection.createIndex(Indexes.ascending("uuid"), new IndexOptions().unique(true));
+				collection.createIndex(Indexes.compoundIndex(Indexes.descending("experience"), Indexes.ascending("uuid")));
+				collection.createIndex(Indexes.compoundIndex(Indexes.descending("level"), Indexes.ascending("uuid")));
+			} catch(MongoException e) {
+				e.printStackTrace();
+			}
+		}
+		
+		private static JsonObject toJson(PlayerRecord r) {
+			JsonObject j = new JsonObject();
+			if(r.getUniqueId() != null) j.addProperty("uuid", r.getUniqueId().toString());
+			j.addProperty("level", r.getLevel());
+			j.addProperty("experience", r.getExperience());
+			return j;
+		}
+		
+		@Override
+		public PlayerRecord getRecord(UUID uuid) {
+			try {
+				return records.find(Filters.eq("uuid", uuid.toString())).projection(RECORD_FIELDS).first();
+			} catch(MongoException e) {
+				e.printStackTrace();
+				return null;
+			}
+		}
+		
+		/**
+		 * Read with one query.
+		 */
+		@Override
+		public Map<UUID, PlayerRecord> getRecords(Collection<UUID> uuids) {
+			List<String> ids = new ArrayList<>(uuids.size());
+			for(UUID u : uuids) ids.add(u.toString());
+			Map<UUID, PlayerRecord> out = new HashMap<>();
+			try {
+				records.find(Filters.in("uuid", ids)).projection(RECORD_FIELDS).forEach(r -> out.put(r.getUniqueId(), r));
+			} catch(MongoException e) {
+				e.printStackTrace();
+				return null;
+			}
+			return out;
+		}
+		
+		@Override
+		public void forEachRecord(Consumer<PlayerRecord> action) {
+			records.find().projection(RECORD_FIELDS).batchSize(1000).forEach(r -> {
+				if(r.getUniqueId() != null) action.accept(r);
+			});
+		}
+		
+		private static Bson setRecordUpdate(PlayerRecord record) {
+			return Updates.combine(Updates.set("level", record.getLevel()), Updates.set("experience", record.getExperience()));
+		}
+		
+		@Override
+		public boolean setRecord(PlayerRecord record) {
+			try {
+				collection.updateOne(Filters.eq("uuid", record.getUniqueId().toString()), setRecordUpdate(record), new UpdateOptions().upsert(true));
+				return true;
+			} catch(MongoException e) {
+				e.printStackTrace();
+				return false;
+			}
+		}
+		
+		@Override
+		public boolean setLevel(UUID uuid, int level) {
+			try {
+				collection.updateOne(Filters.eq("uuid", uuid.toString()), Updates.set("level", level), new UpdateOptions().upsert(true));
+				return true;
+			} catch(MongoException e) {
+				e.printStackTrace();
+				return false;
+			}
+		}
+		
+		@Override
+		public long incrementExperience(UUID uuid, long delta) {
+			try {
+				PlayerRecord r = records.findOneAndUpdate(Filters.eq("uuid", uuid.toString()), Updates.inc("experience", delta),
+						new FindOneAndUpdateOptions().upsert(true).returnDocument(ReturnDocument.AFTER).projection(RECORD_FIELDS));
+				return r == null ? -1 : r.getExperience();
+			} catch(MongoException e) {
+				e.printStackTrace();
+				return -1;
+			}
+		}
+		
+		@Override
+		public boolean[] setRecords(List<PlayerRecord> list) {
+			List<PendingUpdate> batch = new ArrayList<>(list.size());
+			for(PlayerRecord r : list) 
+				batch.add(new PendingUpdate(r.getUniqueId().toString(), setRecordUpdate(r)));
+			long[] res = writeAll(batch);
+			boolean[] out = new boolean[res.length];
+			for(int i = 0; i < out.length; i++) out[i] = res[i] >= 0;
+			return out;
+		}
+		
+		@Override
+		public boolean[] setLevels(List<UUID> uuids, int[] levels) {
+			List<PendingUpdate> batch = new ArrayList<>(uuids.size());
+			for(int i = 0; i < levels.length; i++) 
+				batch.add(new PendingUpdate(uuids.get(i).toString(), Updates.set("level", levels[i])));
+			long[] res = writeAll(batch);
+			boolean[] out = new boolean[res.length];
+			for(int i = 0; i < out.length; i++) out[i] = res[i] >= 0;
+			return out;
+		}
+		
+		@Override
+		public long[] incrementExperience(List<UUID> uuids, long[] deltas) {
+			List<PendingUpdate> batch = new ArrayList<>(uuids.size());
+			for(int i = 0; i < deltas.length; i++) batch.add(new PendingUpdate(uuids.get(i).toString(), deltas[i]));
+			return writeAll(batch);
 		}
 
 		@Override
 		public Set<JsonElement> getData(String key, BsonValue value) {
-			MongoDatabase mongodb = mongoClient.getDatabase(super.dbName);
-			MongoCollection<Document> mongoTable = mongodb.getCollection(super.tableName);
-			FindIterable<Document> res = mongoTable.find(new BsonDocument(key, value));
 			Set<JsonElement> out = new HashSet<>();
-			JsonParser parser = new JsonParser();
-			res.forEach(doc -> out.add(parser.parse(doc.toJson())));
+			records.find(new BsonDocument(key, value)).projection(RECORD_FIELDS).forEach(r -> out.add(toJson(r)));
+			return out;
+		}
+
+		@Override
+		public void forEachData(Consumer<JsonElement> action) {
+			records.find().projection(RECORD_FIELDS).batchSize(1000).forEach(r -> action.accept(toJson(r)));
+		}
+
+		@Override
+		public List<JsonElement> getDataSorted(String field, long min, long max, JsonObject after, int limit) {
+			checkSortField(field);
+			Bson filter = Filters.and(Filters.gte(field, min), Filters.lte(field, max));
+			if(after != null) {
+				long v = after.get(field).getAsLong();
+				String u = after.get("uuid").getAsString();
+				filter = Filters.and(filter, Filters.or(Filters.lt(field, v), 
+						Filters.and(Filters.eq(field, v), Filters.gt("uuid", u))));
+			}
+			List<JsonElement> out = new ArrayList<>();
+			records.find(filter)
+				.sort(Sorts.orderBy(Sorts.descending(field), Sorts.ascending("uuid")))
+				.projection(RECORD_FIELDS)
+				.limit(limit)
+				.batchSize(Math.min(limit, 500))
+				.forEach(r -> out.add(toJson(r)));
 			return out;
 		}
 
 		@Override
 		public void close() {
+			closed = true;
+			bulkThread.interrupt();
+			try {
+				bulkThread.join(10000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			// updates queued while the writer stopped
+			List<PendingUpdate> left = new ArrayList<>();
+			pending.drainTo(left);
+			for(PendingUpdate u : left) u.result.complete(-1L);
 			mongoClient.close();
 		}
-
+		
 		@Override
 		public boolean setData(String keyWhere, BsonValue valueWhere, List<BsonElement> elements) {
-			MongoDatabase mongodb = mongoClient.getDatabase(super.dbName);
-			MongoCollection<Document> mongoTable = mongodb.getCollection(super.tableName);
-			Document d = mongoTable.findOneAndUpdate(new BsonDocument(keyWhere, valueWhere), new BsonDocument(elements));
-			return d != null;
+			try {
+				collection.updateOne(new BsonDocument(keyWhere, valueWhere), new BsonDocument("$set", new BsonDocument(elements)), 
+						new UpdateOptions().upsert(true));
+				return true;
+			} catch(MongoException e) {
+				e.printStackTrace();
+				return false;
+			}
 		}
+
 	}
 	
+	/**
+	 * Table of uuid BINARY(16) primary key, level and experience, created if it doesn't exist and migrated if it's of an older version.
+	 * Statements are cached by the driver, writes are upserts and the batch methods send many players per round trip.
+	 * The sort indexes are declared in the order of the sorted queries, so MySQL 8 reads them forward without a filesort.
+	 */
 	public static class MySQL extends DataLoader {
+		
+		private static final List<String> COLUMNS = Arrays.asList("uuid", "level", "experience");
 
 		private HikariDataSource dataSource;
 	 
@@ -151,7 +723,61 @@ public abstract class DataLoader implements Closeable {
 			this.maximumConnections = maxConns;
 			this.connectionTimeout = timeout;
 	        setupPool(address, String.valueOf(port), name, user, pass);
+	        createTable();
 		}
+	    
+	    /**
+	     * Creates the table, or brings a table of an older version to this schema.
+	     * A table with a text uuid column is copied into a typed one and kept as {@code <table>_old},
+	     * missing sort indexes are added.
+	     */
+	    private void createTable() {
+	    	Connection c = null;
+	    	try {
+	    		c = getConnection();
+	    		DatabaseMetaData meta = c.getMetaData();
+	    		String uuidType = null;
+	    		try(ResultSet rs = meta.getColumns(c.getCatalog(), null, super.tableName, "uuid")) {
+	    			if(rs.next()) uuidType = rs.getString("TYPE_NAME");
+	    		}
+	    		try(Statement st = c.createStatement()) {
+	    			if(uuidType == null) {
+	    				st.executeUpdate(createStatement(super.tableName));
+	    			} else if(!uuidType.equalsIgnoreCase("BINARY")) {
+	    				String copy = super.tableName + "_new";
+	    				// a copy left by an interrupted migration is made again, the old table is only renamed last
+	    				st.executeUpdate("DROP TABLE IF EXISTS " + copy);
+	    				st.executeUpdate(createStatement(copy));
+	    				st.executeUpdate("INSERT INTO " + copy + " (uuid, level, experience) "
+	    						+ "SELECT UNHEX(REPLACE(uuid, '-', '')), level, experience FROM " + super.tableName);
+	    				st.executeUpdate("RENAME TABLE " + super.tableName + " TO " + super.tableName + "_old, " 
+	    						+ copy + " TO " + super.tableName);
+	    			} else {
+	    				Set<String> indexes = new HashSet<>();
+	    				try(ResultSet rs = meta.getIndexInfo(c.getCatalog(), null, super.tableName, false, false)) {
+	    					while(rs.next()) indexes.add(rs.getString("INDEX_NAME"));
+	    				}
+	    				if(!indexes.contains("idx_experience")) 
+	    					st.executeUpdate("ALTER TABLE " + super.tableName + " ADD INDEX idx_experience (experience DESC, uuid ASC)");
+	    				if(!indexes.contains("idx_level")) 
+	    					st.executeUpdate("ALTER TABLE " + super.tableName + " ADD INDEX idx_level (level DESC, uuid ASC)");
+	    			}
+	    		}
+	    	} catch (SQLException e) {
+	    		e.printStackTrace();
+	    	} finally {
+	    		closeConnection(c);
+	    	}
+	    }
+	    
+	    private static String createStatement(String table) {
+	    	return "CREATE TABLE IF NOT EXISTS " + table + " ("
+	    			+ "uuid BINARY(16) NOT NULL PRIMARY KEY, "
+	    			+ "level INT NOT NULL DEFAULT 1, "
+	    			+ "experience BIGINT NOT NULL DEFAULT 0, "
+	    			+ "INDEX idx_experience (experience DESC, uuid ASC), "
+	    			+ "INDEX idx_level (level DESC, uuid ASC))";
+	    }
 	 
 	    private void setupPool(String address, String port, String name, String user, String pass) {
 	        HikariConfig config = new HikariConfig();
@@ -170,6 +796,12 @@ public abstract class DataLoader implements Closeable {
 	        config.setMinimumIdle(minimumConnections);
 	        config.setMaximumPoolSize(maximumConnections);
 	        config.setConnectionTimeout(connectionTimeout);
+	        config.addDataSourceProperty("cachePrepStmts", "true");
+	        config.addDataSourceProperty("prepStmtCacheSize", "250");
+	        config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+	        config.addDataSourceProperty("useServerPrepStmts", "true");
+	        // sends a batch of inserts as one multi-row statement
+	        config.addDataSourceProperty("rewriteBatchedStatements", "true");
 	        dataSource = new HikariDataSource(config);
 	    }
 	 
@@ -183,6 +815,38 @@ public abstract class DataLoader implements Closeable {
 	        		conn.close(); 
 	        	} catch (SQLException ex) {ex.printStackTrace();}
 	    }
+	    
+	    /**
+	     * Column names are put into the SQL, so only the known ones are accepted.
+	     */
+	    private static String column(String key) {
+	    	String c = key.toLowerCase();
+	    	if(!COLUMNS.contains(c)) throw new IllegalArgumentException("Unknown column " + key);
+	    	return c;
+	    }
+	    
+	    static byte[] toBytes(UUID uuid) {
+	    	return ByteBuffer.allocate(16).putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits()).array();
+	    }
+	    
+	    static UUID fromBytes(byte[] b) {
+	    	ByteBuffer bb = ByteBuffer.wrap(b);
+	    	return new UUID(bb.getLong(), bb.getLong());
+	    }
+	    
+	    private static void bind(PreparedStatement ps, int i, String column, BsonValue value) throws SQLException {
+	    	if(column.equals("uuid")) ps.setBytes(i, toBytes(UUID.fromString(value.isString() ? value.asString().getValue() : value.toString())));
+	    	else if(value.isNumber()) ps.setLong(i, value.asNumber().longValue());
+	    	else ps.setString(i, value.isString() ? value.asString().getValue() : value.toString());
+	    }
+	    
+	    private static JsonObject toJson(ResultSet rs) throws SQLException {
+	    	JsonObject j = new JsonObject();
+	    	j.addProperty("uuid", fromBytes(rs.getBytes(1)).toString());
+	    	j.addProperty("level", rs.getInt(2));
+	    	j.addProperty("experience", rs.getLong(3));
+	    	return j;
+	    }
 
 		@Override
 		public void close() {
@@ -192,127 +856,651 @@ public abstract class DataLoader implements Closeable {
 		@Override
 		public Set<JsonElement> getData(String key, BsonValue value) {
 			Set<JsonElement> out = new HashSet<>();
+			Connection c = null;
 			try {
-				Connection c = getConnection();
-				PreparedStatement ps = c.prepareStatement("SELECT * FROM ? WHERE ?=?");
-				ps.setString(1, super.tableName);
-				ps.setString(2, key.toUpperCase());
-				if(value.isString()) ps.setString(3, value.asString().getValue());
-				else if(value.isBoolean()) ps.setBoolean(3, value.asBoolean().getValue());
-				else if(value.isDocument()) ps.setString(3, value.asDocument().toJson());
-				else if(value.isDouble()) ps.setDouble(3, value.asDouble().getValue());
-				else if(value.isInt32()) ps.setInt(3, value.asInt32().getValue());
-				else if(value.isInt64()) ps.setLong(3, value.asInt64().getValue());
-				else if(value.isNull()) ps.setNull(3, java.sql.Types.VARCHAR);
-				else if(value.isTimestamp()) ps.setTimestamp(3, new Timestamp(value.asTimestamp().getValue()));
-				else ps.setString(3, value.toString());
+				String col = column(key);
+				c = getConnection();
+				PreparedStatement ps = c.prepareStatement("SELECT uuid, level, experience FROM " + super.tableName + " WHERE " + col + " = ?");
+				bind(ps, 1, col, value);
 				ResultSet rs = ps.executeQuery();
-				ResultSetMetaData md = rs.getMetaData();
-				JsonParser p = new JsonParser();
-				while(rs.next()) {
-					JsonObject j = new JsonObject();
-					for(int i = 0; i < md.getColumnCount(); i++) {
-						j.add(md.getColumnLabel(i+1), p.parse(rs.getObject(i+1).toString()));
-					}
-					out.add(j);
-				}
+				while(rs.next()) out.add(toJson(rs));
 				rs.close();
 				ps.close();
-				closeConnection(c);
-			} catch (SQLException e) {
+			} catch (SQLException | IllegalArgumentException e) {
 				e.printStackTrace();
+				return null;
+			} finally {
+				closeConnection(c);
 			}
 			return out;
 		}
-
+		
 		@Override
-		public boolean setData(String keyWhere, BsonValue valueWhere, List<BsonElement> elements) {
+		public void forEachData(Consumer<JsonElement> action) {
+			Connection c = null;
 			try {
-				Connection c = getConnection();
-				String[] qs = new String[elements.size()];
-				for(int i = 0; i < qs.length; i++) qs[i] = "?=?";
-				String qsc = String.join(",", qs);
-				PreparedStatement ps = c.prepareStatement("UPDATE ? SET " + qsc + " WHERE ?=?");
-				int i = 1;
-				ps.setString(i++, super.tableName);
-				for(BsonElement el : elements) {
-					ps.setString(i++, el.getName());
-					BsonValue value = el.getValue();
-					if(value.isString()) ps.setString(i, value.asString().getValue());
-					else if(value.isBoolean()) ps.setBoolean(i, value.asBoolean().getValue());
-					else if(value.isDocument()) ps.setString(i, value.asDocument().toJson());
-					else if(value.isDouble()) ps.setDouble(i, value.asDouble().getValue());
-					else if(value.isInt32()) ps.setInt(i, value.asInt32().getValue());
-					else if(value.isInt64()) ps.setLong(i, value.asInt64().getValue());
-					else if(value.isNull()) ps.setNull(i, java.sql.Types.VARCHAR);
-					else if(value.isTimestamp()) ps.setTimestamp(i, new Timestamp(value.asTimestamp().getValue()));
-					else ps.setString(i, value.toString());
-					i++;
-				}
-				ps.setString(i++, keyWhere);
-				if(valueWhere.isString()) ps.setString(i, valueWhere.asString().getValue());
-				else if(valueWhere.isBoolean()) ps.setBoolean(i, valueWhere.asBoolean().getValue());
-				else if(valueWhere.isDocument()) ps.setString(i, valueWhere.asDocument().toJson());
-				else if(valueWhere.isDouble()) ps.setDouble(i, valueWhere.asDouble().getValue());
-				else if(valueWhere.isInt32()) ps.setInt(i, valueWhere.asInt32().getValue());
-				else if(valueWhere.isInt64()) ps.setLong(i, valueWhere.asInt64().getValue());
-				else if(valueWhere.isNull()) ps.setNull(i, java.sql.Types.VARCHAR);
-				else if(valueWhere.isTimestamp()) ps.setTimestamp(i, new Timestamp(valueWhere.asTimestamp().getValue()));
-				else ps.setString(i, valueWhere.toString());
-				ps.executeUpdate();
+				c = getConnection();
+				PreparedStatement ps = c.prepareStatement("SELECT uuid, level, experience FROM " + super.tableName, 
+						ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+				// streams rows one by one instead of reading the whole table into memory
+				ps.setFetchSize(Integer.MIN_VALUE);
+				ResultSet rs = ps.executeQuery();
+				while(rs.next()) action.accept(toJson(rs));
+				rs.close();
 				ps.close();
-				closeConnection(c);
 			} catch (SQLException e) {
 				e.printStackTrace();
+			} finally {
+				closeConnection(c);
 			}
-			return false;
 		}
 		
-	}
-	
-	public static class FlatFile extends DataLoader {
-
-		private File dataFolder;
-		
-		public FlatFile(File playerDataFolder) {
-			super(DataType.FLATFILE);
-			this.dataFolder = playerDataFolder;
-		}
-
-		@Override
-		public void close() { }
-
 		@Override
-		public Set<JsonElement> getData(String key, BsonValue value) {
-			Set<JsonElement> out = new HashSet<>();
-			if(!key.equalsIgnoreCase("uuid") || !value.isString()) {
-				// TODO parse through every json file.
-				return null;
-			}
-			File f = new File(dataFolder, value.asString().getValue() + ".json");
+		public List<JsonElement> getDataSorted(String field, long min, long max, JsonObject after, int limit) {
+			checkSortField(field);
+			List<JsonElement> out = new ArrayList<>();
+			String seek = after == null ? "" : " AND (" + field + " < ? OR (" + field + " = ? AND uuid > ?))";
+			Connection c = null;
 			try {
-				if(!f.exists()) f.createNewFile();
-				FileReader fr = new FileReader(f);
-				JsonReader jr = new JsonReader(fr);
-				JsonParser parser = new JsonParser();
-				out.add(parser.parse(jr));
-				jr.close();
-			} catch (IOException e) {
+				c = getConnection();
+				PreparedStatement ps = c.prepareStatement("SELECT uuid, level, experience FROM " + super.tableName 
+						+ " WHERE " + field + " BETWEEN ? AND ?" + seek 
+						+ " ORDER BY " + field + " DESC, uuid ASC LIMIT ?", 
+						ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+				ps.setFetchSize(Integer.MIN_VALUE);
+				int i = 1;
+				ps.setLong(i++, min);
+				ps.setLong(i++, max);
+				if(after != null) {
+					long v = after.get(field).getAsLong();
+					ps.setLong(i++, v);
+					ps.setLong(i++, v);
+					ps.setBytes(i++, toBytes(UUID.fromString(after.get("uuid").getAsString())));
+				}
+				ps.setInt(i, limit);
+				ResultSet rs = ps.executeQuery();
+				while(rs.next()) out.add(toJson(rs));
+				rs.close();
+				ps.close();
+			} catch (SQLException e) {
 				e.printStackTrace();
-				return null;
+			} finally {
+				closeConnection(c);
 			}
 			return out;
 		}
 
+		/**
+		 * One upsert of the given columns.
+		 */
 		@Override
-		public boolean setData(String key, BsonValue value, List<BsonElement> elements) {
-			if(!key.equalsIgnoreCase("uuid") || !value.isString()) {
+		public boolean setData(String keyWhere, BsonValue valueWhere, List<BsonElement> elements) {
+			Connection c = null;
+			try {
+				if(!column(keyWhere).equals("uuid")) return false;
+				List<String> cols = new ArrayList<>();
+				for(BsonElement el : elements) cols.add(column(el.getName()));
+				String[] qs = new String[cols.size() + 1];
+				Arrays.fill(qs, "?");
+				String[] updates = new String[cols.size()];
+				for(int i = 0; i < updates.length; i++) updates[i] = cols.get(i) + " = VALUES(" + cols.get(i) + ")";
+				c = getConnection();
+				PreparedStatement ps = c.prepareStatement("INSERT INTO " + super.tableName 
+						+ " (uuid" + (cols.isEmpty() ? "" : ", " + String.join(", ", cols)) + ") VALUES (" + String.join(", ", qs) + ")"
+						+ (cols.isEmpty() ? " ON DUPLICATE KEY UPDATE uuid = uuid" : " ON DUPLICATE KEY UPDATE " + String.join(", ", updates)));
+				bind(ps, 1, "uuid", valueWhere);
+				for(int i = 0; i < cols.size(); i++) bind(ps, i + 2, cols.get(i), elements.get(i).getValue());
+				ps.executeUpdate();
+				ps.close();
+				return true;
+			} catch (SQLException | IllegalArgumentException e) {
+				e.printStackTrace();
 				return false;
+			} finally {
+				closeConnection(c);
 			}
-			File f = new File(dataFolder, value.asString().getValue().concat(".json"));
+		}
+
+		/**
+		 * One transaction of a batch of upserts followed by one select of the new totals.
+		 */
+		private long[] increment(List<UUID> uuids, String col, long[] deltas) {
+			long[] out = new long[uuids.size()];
+			Arrays.fill(out, -1);
+			if(out.length == 0) return out;
+			Connection c = null;
 			try {
-				if(!f.exists()) f.createNewFile();
-				FileReader fr = new FileReader(f);
+				c = getConnection();
+				c.setAutoCommit(false);
+				PreparedStatement ps = c.prepareStatement("INSERT INTO " + super.tableName + " (uuid, " + col + ") VALUES (?, ?)"
+						+ " ON DUPLICATE KEY UPDATE " + col + " = " + col + " + VALUES(" + col + ")");
+				for(int i = 0; i < out.length; i++) {
+					ps.setBytes(1, toBytes(uuids.get(i)));
+					ps.setLong(2, deltas[i]);
+					ps.addBatch();
+				}
+				ps.executeBatch();
+				ps.close();
+				String[] qs = new String[out.length];
+				Arrays.fill(qs, "?");
+				ps = c.prepareStatement("SELECT uuid, " + col + " FROM " + super.tableName + " WHERE uuid IN (" + String.join(",", qs) + ")");
+				Map<UUID, Integer> positions = new HashMap<>();
+				for(int i = 0; i < out.length; i++) {
+					ps.setBytes(i + 1, toBytes(uuids.get(i)));
+					positions.put(uuids.get(i), i);
+				}
+				ResultSet rs = ps.executeQuery();
+				long[] totals = new long[out.length];
+				Arrays.fill(totals, -1);
+				while(rs.next()) {
+					Integer i = positions.get(fromBytes(rs.getBytes(1)));
+					if(i != null) totals[i] = rs.getLong(2);
+				}
+				rs.close();
+				ps.close();
+				c.commit();
+				return totals;
+			} catch (SQLException e) {
+				e.printStackTrace();
+				if(c != null) 
+					try {
+						c.rollback();
+					} catch (SQLException ex) {ex.printStackTrace();}
+				return out;
+			} finally {
+				if(c != null) 
+					try {
+						c.setAutoCommit(true);
+					} catch (SQLException ex) {ex.printStackTrace();}
+				closeConnection(c);
+			}
+		}
+		
+		@Override
+		public PlayerRecord getRecord(UUID uuid) {
+			Map<UUID, PlayerRecord> m = getRecords(Collections.singletonList(uuid));
+			return m == null ? null : m.get(uuid);
+		}
+		
+		@Override
+		public Map<UUID, PlayerRecord> getRecords(Collection<UUID> uuids) {
+			Map<UUID, PlayerRecord> out = new HashMap<>();
+			if(uuids.isEmpty()) return out;
+			String[] qs = new String[uuids.size()];
+			Arrays.fill(qs, "?");
+			Connection c = null;
+			try {
+				c = getConnection();
+				PreparedStatement ps = c.prepareStatement("SELECT uuid, level, experience FROM " + super.tableName + " WHERE uuid IN (" + String.join(",", qs) + ")");
+				int i = 1;
+				for(UUID u : uuids) ps.setBytes(i++, toBytes(u));
+				ResultSet rs = ps.executeQuery();
+				while(rs.next()) {
+					UUID u = fromBytes(rs.getBytes(1));
+					out.put(u, new PlayerRecord(u, rs.getInt(2), rs.getLong(3)));
+				}
+				rs.close();
+				ps.close();
+			} catch (SQLException e) {
+				e.printStackTrace();
+				return null;
+			} finally {
+				closeConnection(c);
+			}
+			return out;
+		}
+		
+		@Override
+		public boolean setRecord(PlayerRecord record) {
+			return setRecords(Collections.singletonList(record))[0];
+		}
+		
+		@Override
+		public boolean setLevel(UUID uuid, int level) {
+			return setLevels(Collections.singletonList(uuid), new int[] {level})[0];
+		}
+		
+		@Override
+		public long incrementExperience(UUID uuid, long delta) {
+			return increment(Collections.singletonList(uuid), "experience", new long[] {delta})[0];
+		}
+		
+		@Override
+		public boolean[] setRecords(List<PlayerRecord> records) {
+			boolean[] out = new boolean[records.size()];
+			if(out.length == 0) return out;
+			Connection c = null;
+			try {
+				c = getConnection();
+				PreparedStatement ps = c.prepareStatement("INSERT INTO " + super.tableName + " (uuid, level, experience) VALUES (?, ?, ?)"
+						+ " ON DUPLICATE KEY UPDATE level = VALUES(level), experience = VALUES(experience)");
+				for(PlayerRecord r : records) {
+					ps.setBytes(1, toBytes(r.getUniqueId()));
+					ps.setInt(2, r.getLevel());
+					ps.setLong(3, r.getExperience());
+					ps.addBatch();
+				}
+				ps.executeBatch();
+				ps.close();
+				Arrays.fill(out, true);
+			} catch (SQLException e) {
+				e.printStackTrace();
+			} finally {
+				closeConnection(c);
+			}
+			return out;
+		}
+		
+		@Override
+		public boolean[] setLevels(List<UUID> uuids, int[] levels) {
+			boolean[] out = new boolean[uuids.size()];
+			if(out.length == 0) return out;
+			Connection c = null;
+			try {
+				c = getConnection();
+				PreparedStatement ps = c.prepareStatement("INSERT INTO " + super.tableName + " (uuid, level) VALUES (?, ?)"
+						+ " ON DUPLICATE KEY UPDATE level = VALUES(level)");
+				for(int i = 0; i < levels.length; i++) {
+					ps.setBytes(1, toBytes(uuids.get(i)));
+					ps.setInt(2, levels[i]);
+					ps.addBatch();
+				}
+				ps.executeBatch();
+				ps.close();
+				Arrays.fill(out, true);
+			} catch (SQLException e) {
+				e.printStackTrace();
+			} finally {
+				closeConnection(c);
+			}
+			return out;
+		}
+		
+	}
+	
+	public static class FlatFile extends DataLoader {
+
+		private File dataFolder;
+		private Index index;
+		
+		public FlatFile(File playerDataFolder) {
+			this(playerDataFolder, Logger.getLogger(FlatFile.class.getName()));
+		}
+		
+		/**
+		 * @param logger where files that can't be indexed are reported
+		 */
+		public FlatFile(File playerDataFolder, Logger logger) {
+			super(DataType.FLATFILE);
+			this.dataFolder = playerDataFolder;
+			this.index = new Index(new File(playerDataFolder, "index.dat"), playerDataFolder, logger);
+		}
+		
+		/**
+		 * Persistent secondary index of level and experience for every file.
+		 * Kept in memory as one ordered set per field, and on disk as a log of 32 byte records 
+		 * (uuid, level, experience, crc32) where the newest record of a uuid wins. 
+		 * Each change is appended, the log is rewritten compacted on close, and rebuilt from the JSON files if it is missing.
+		 */
+		private static class Index {
+			
+			private static final int MAGIC = 0x4E4C4958, RECORD_SIZE = 32;
+			
+			private static final class Key implements Comparable<Key> {
+				final long value;
+				final String uuid;
+				Key(long value, String uuid) {
+					this.value = value;
+					this.uuid = uuid;
+				}
+				// highest value first, ties by uuid
+				@Override
+				public int compareTo(Key o) {
+					int c = Long.compare(o.value, value);
+					return c != 0 ? c : uuid.compareTo(o.uuid);
+				}
+			}
+			
+			private final File file;
+			// uuid -> {level, experience}
+			private final Map<String, long[]> values = new HashMap<>();
+			private final TreeSet<Key> byLevel = new TreeSet<>(), byExperience = new TreeSet<>();
+			private FileChannel log;
+			
+			Index(File file, File dataFolder, Logger logger) {
+				this.file = file;
+				boolean loaded = file.exists() && load();
+				File[] files;
+				if(!loaded) {
+					values.clear();
+					byLevel.clear();
+					byExperience.clear();
+					files = dataFolder.listFiles((dir, name) -> name.endsWith(".json"));
+				} else {
+					// files written after the last index write, e.g. before a crash
+					long since = file.lastModified();
+					files = dataFolder.listFiles((dir, name) -> name.endsWith(".json") && new File(dir, name).lastModified() >= since);
+				}
+				if(files != null && files.length > 0) {
+					Map<String, long[]> read = new ConcurrentHashMap<>();
+					Arrays.stream(files).parallel().forEach(f -> {
+						String uuid = f.getName().substring(0, f.getName().length() - 5);
+						try(FileReader fr = new FileReader(f)) {
+							JsonElement je = new JsonParser().parse(fr);
+							if(je.isJsonObject()) read.put(uuid, fieldsOf(je.getAsJsonObject()));
+						} catch (IOException | RuntimeException e) {
+							logger.warning("Couldn't index " + f.getName() + ": " + e);
+						}
+					});
+					for(Map.Entry<String, long[]> e : read.entrySet()) put(e.getKey(), e.getValue());
+				}
+				try {
+					rewrite();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+			
+			private static long[] fieldsOf(JsonObject jo) {
+				return new long[] {
+						jo.has("level") ? jo.get("level").getAsLong() : 1, 
+						jo.has("experience") ? jo.get("experience").getAsLong() : 0};
+			}
+			
+			private boolean load() {
+				try(FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+					ByteBuffer b = ByteBuffer.allocate((int) ch.size());
+					while(b.hasRemaining() && ch.read(b) >= 0);
+					b.flip();
+					if(b.remaining() < 4 || b.getInt() != MAGIC) return false;
+					byte[] rec = new byte[RECORD_SIZE];
+					CRC32 crc = new CRC32();
+					while(b.remaining() >= RECORD_SIZE) {
+						b.get(rec);
+						crc.reset();
+						crc.update(rec, 0, RECORD_SIZE - 4);
+						ByteBuffer r = ByteBuffer.wrap(rec);
+						// a torn record ends the log
+						if((int) crc.getValue() != r.getInt(RECORD_SIZE - 4)) break;
+						put(new UUID(r.getLong(0), r.getLong(8)).toString(), new long[] {r.getInt(16), r.getLong(20)});
+					}
+					return true;
+				} catch (IOException e) {
+					e.printStackTrace();
+					return false;
+				}
+			}
+			
+			private void put(String uuid, long[] v) {
+				long[] old = values.put(uuid, v);
+				if(old != null) {
+					byLevel.remove(new Key(old[0], uuid));
+					byExperience.remove(new Key(old[1], uuid));
+				}
+				byLevel.add(new Key(v[0], uuid));
+				byExperience.add(new Key(v[1], uuid));
+			}
+			
+			private static ByteBuffer record(String uuid, long[] v) {
+				UUID u = UUID.fromString(uuid);
+				ByteBuffer b = ByteBuffer.allocate(RECORD_SIZE);
+				b.putLong(u.getMostSignificantBits()).putLong(u.getLeastSignificantBits()).putInt((int) v[0]).putLong(v[1]);
+				CRC32 crc = new CRC32();
+				crc.update(b.array(), 0, RECORD_SIZE - 4);
+				b.putInt((int) crc.getValue());
+				b.flip();
+				return b;
+			}
+			
+			/**
+			 * Writes the current entries to a new log and replaces the old one.
+			 */
+			private void rewrite() throws IOException {
+				if(log != null) log.close();
+				File tmp = new File(file.getPath() + ".tmp");
+				try(FileChannel ch = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+					ByteBuffer header = ByteBuffer.allocate(4).putInt(MAGIC);
+					header.flip();
+					ch.write(header);
+					for(Map.Entry<String, long[]> e : values.entrySet()) {
+						try {
+							ch.write(record(e.getKey(), e.getValue()));
+						} catch(IllegalArgumentException ex) {
+							// not a uuid file name
+						}
+					}
+					ch.force(true);
+				}
+				Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				log = FileChannel.open(file.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+			}
+			
+			synchronized void update(String uuid, JsonObject jo) {
+				long[] v = fieldsOf(jo);
+				put(uuid, v);
+				try {
+					if(log != null) log.write(record(uuid, v));
+				} catch (IOException | IllegalArgumentException e) {
+					e.printStackTrace();
+				}
+			}
+			
+			/**
+			 * @return the uuids whose field equals the value
+			 */
+			synchronized List<String> find(String field, long value) {
+				List<String> out = new ArrayList<>();
+				TreeSet<Key> set = field.equals("level") ? byLevel : byExperience;
+				for(Key k : set.subSet(new Key(value, ""), true, new Key(value - 1, ""), false)) out.add(k.uuid);
+				return out;
+			}
+			
+			synchronized List<JsonElement> page(String field, long min, long max, JsonObject after, int limit) {
+				List<JsonElement> out = new ArrayList<>();
+				TreeSet<Key> set = field.equals("level") ? byLevel : byExperience;
+				Key from = new Key(max, "");
+				if(after != null) {
+					Key a = new Key(after.get(field).getAsLong(), after.get("uuid").getAsString());
+					if(a.compareTo(from) >= 0) from = a;
+				}
+				for(Key k : set.tailSet(from, false)) {
+					if(out.size() >= limit || k.value < min) break;
+					long[] v = values.get(k.uuid);
+					JsonObject j = new JsonObject();
+					j.addProperty("uuid", k.uuid);
+					j.addProperty("level", v[0]);
+					j.addProperty("experience", v[1]);
+					out.add(j);
+				}
+				return out;
+			}
+			
+			synchronized void close() {
+				try {
+					rewrite();
+					log.close();
+					log = null;
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		
+		@Override
+		public void close() {
+			index.close();
+		}
+		
+		private File fileOf(UUID uuid) {
+			return new File(dataFolder, uuid + ".json");
+		}
+		
+		/**
+		 * @return the contents of the player's file, empty if there is none, or null if it couldn't be read
+		 */
+		private JsonObject readJson(UUID uuid) {
+			File f = fileOf(uuid);
+			if(!f.exists()) return new JsonObject();
+			try(FileReader fr = new FileReader(f)) {
+				JsonElement je = new JsonParser().parse(fr);
+				return je.isJsonObject() ? je.getAsJsonObject() : new JsonObject();
+			} catch (IOException | JsonParseException e) {
+				e.printStackTrace();
+				return null;
+			}
+		}
+		
+		/**
+		 * Writes a temporary file and moves it over the file, so a reader never sees it truncated or half written.
+		 */
+		private static void replaceFile(File f, String content) throws IOException {
+			File tmp = new File(f.getPath() + ".tmp");
+			try(BufferedWriter bw = new BufferedWriter(new FileWriter(tmp))) {
+				bw.write(content);
+			}
+			Files.move(tmp.toPath(), f.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		
+		private boolean writeJson(UUID uuid, JsonObject jo) {
+			try {
+				replaceFile(fileOf(uuid), jo.toString());
+			} catch (IOException e) {
+				e.printStackTrace();
+				return false;
+			}
+			index.update(uuid.toString(), jo);
+			return true;
+		}
+		
+		/**
+		 * @return the record in the player's file contents, or null if it has neither level nor experience
+		 */
+		private static PlayerRecord toRecord(UUID uuid, JsonObject jo) {
+			if(!jo.has("level") && !jo.has("experience")) return null;
+			return new PlayerRecord(uuid, 
+					jo.has("level") ? jo.get("level").getAsInt() : 1, 
+					jo.has("experience") ? jo.get("experience").getAsLong() : 0);
+		}
+		
+		@Override
+		public PlayerRecord getRecord(UUID uuid) {
+			JsonObject jo = readJson(uuid);
+			return jo == null ? null : toRecord(uuid, jo);
+		}
+		
+		/**
+		 * One file read per player.
+		 */
+		@Override
+		public Map<UUID, PlayerRecord> getRecords(Collection<UUID> uuids) {
+			Map<UUID, PlayerRecord> out = new HashMap<>();
+			for(UUID u : uuids) {
+				JsonObject jo = readJson(u);
+				if(jo == null) return null;
+				PlayerRecord r = toRecord(u, jo);
+				if(r != null) out.put(u, r);
+			}
+			return out;
+		}
+		
+		@Override
+		public synchronized boolean setRecord(PlayerRecord record) {
+			JsonObject jo = readJson(record.getUniqueId());
+			if(jo == null) return false;
+			jo.addProperty("level", record.getLevel());
+			jo.addProperty("experience", record.getExperience());
+			return writeJson(record.getUniqueId(), jo);
+		}
+		
+		@Override
+		public synchronized boolean setLevel(UUID uuid, int level) {
+			JsonObject jo = readJson(uuid);
+			if(jo == null) return false;
+			jo.addProperty("level", level);
+			return writeJson(uuid, jo);
+		}
+		
+		@Override
+		public synchronized long incrementExperience(UUID uuid, long delta) {
+			JsonObject jo = readJson(uuid);
+			if(jo == null) return -1;
+			long exp = (jo.has("experience") ? jo.get("experience").getAsLong() : 0) + delta;
+			jo.addProperty("experience", exp);
+			return writeJson(uuid, jo) ? exp : -1;
+		}
+
+		/**
+		 * Level and experience are looked up in the index, other keys than uuid aren't supported.
+		 */
+		@Override
+		public Set<JsonElement> getData(String key, BsonValue value) {
+			Set<JsonElement> out = new HashSet<>();
+			if((key.equals("level") || key.equals("experience")) && value.isNumber()) {
+				for(String uuid : index.find(key, value.asNumber().longValue())) {
+					Set<JsonElement> el = getData("uuid", new BsonString(uuid));
+					if(el == null) continue;
+					for(JsonElement j : el) {
+						if(j.isJsonObject()) {
+							j.getAsJsonObject().addProperty("uuid", uuid);
+							out.add(j);
+						}
+					}
+				}
+				return out;
+			}
+			if(!key.equalsIgnoreCase("uuid") || !value.isString()) {
+				return null;
+			}
+			File f = new File(dataFolder, value.asString().getValue() + ".json");
+			try {
+				if(!f.exists()) f.createNewFile();
+				FileReader fr = new FileReader(f);
+				JsonReader jr = new JsonReader(fr);
+				JsonParser parser = new JsonParser();
+				out.add(parser.parse(jr));
+				jr.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+				return null;
+			}
+			return out;
+		}
+
+		@Override
+		public void forEachData(Consumer<JsonElement> action) {
+			File[] files = dataFolder.listFiles((dir, name) -> name.endsWith(".json"));
+			if(files == null) return;
+			for(File f : files) {
+				String uuid = f.getName().substring(0, f.getName().length() - 5);
+				Set<JsonElement> el = getData("uuid", new BsonString(uuid));
+				if(el == null) continue;
+				for(JsonElement j : el) {
+					if(j.isJsonObject()) {
+						j.getAsJsonObject().addProperty("uuid", uuid);
+						action.accept(j);
+					}
+				}
+			}
+		}
+
+		/**
+		 * Read from the index, no file is opened.
+		 */
+		@Override
+		public List<JsonElement> getDataSorted(String field, long min, long max, JsonObject after, int limit) {
+			checkSortField(field);
+			return index.page(field, min, max, after, limit);
+		}
+
+		@Override
+		public synchronized boolean setData(String key, BsonValue value, List<BsonElement> elements) {
+			if(!key.equalsIgnoreCase("uuid") || !value.isString()) {
+				return false;
+			}
+			File f = new File(dataFolder, value.asString().getValue().concat(".json"));
+			try {
+				if(!f.exists()) f.createNewFile();
+				FileReader fr = new FileReader(f);
 				JsonReader jr = new JsonReader(fr);
 				JsonParser parser = new JsonParser();
 				JsonElement je = (parser.parse(jr));
@@ -332,10 +1520,8 @@ public abstract class DataLoader implements Closeable {
 						else val = bv.toString();
 						jo.add(el.getName(), parser.parse(val.toString()));
 					}
-					FileWriter fw = new FileWriter(f);
-					BufferedWriter bw = new BufferedWriter(fw);
-					bw.write(jo.toString());
-					bw.close();
+					replaceFile(f, jo.toString());
+					index.update(value.asString().getValue(), jo);
 				} else if(je.isJsonArray()) {
 					jr.close();
 					return false;
@@ -355,10 +1541,8 @@ public abstract class DataLoader implements Closeable {
 						else val = bv.toString();
 						jo.add(el.getName(), parser.parse(val.toString()));
 					}
-					FileWriter fw = new FileWriter(f);
-					BufferedWriter bw = new BufferedWriter(fw);
-					bw.write(jo.toString());
-					bw.close();
+					replaceFile(f, jo.toString());
+					index.update(value.asString().getValue(), jo);
 				} else {
 					jr.close();
 					return false;
@@ -372,4 +1556,495 @@ public abstract class DataLoader implements Closeable {
 		
 	}
 	
+	/**
+	 * Fixed-size binary records in memory-mapped, append-only segment files.
+	 * Every write appends the whole record to the active segment and moves the in-memory offset index to it,
+	 * the newest record of a UUID wins. Segments mostly made of replaced records are compacted in the background.
+	 * Every write, single or batched, forces the segments it touched to disk before it returns.
+	 * Segment files are created at their full size, so an existing one holds as many records as its length allows
+	 * and changing the segment size only affects new segments.
+	 */
+	public static class SegmentFile extends DataLoader {
+		
+		// uuid (16), level (4), experience (8), created (8), updated (8), crc32 of the previous bytes (4)
+		static final int RECORD_SIZE = 48;
+		private static final int CRC_OFFSET = 44;
+		// a sealed segment is compacted once less than this share of its records is live
+		private static final double COMPACT_RATIO = 0.5;
+		private static final Pattern SEGMENT_NAME = Pattern.compile("segment-(\\d{1,9})\\.dat");
+		// exists while the JSON files are imported, segments found next to it are an interrupted import
+		private static final String IMPORT_MARKER = "import.pending";
+		
+		private final File folder;
+		private final int segmentRecords;
+		private final Logger logger;
+		private final TreeMap<Integer, Segment> segments = new TreeMap<>();
+		// uuid -> segment id << 32 | slot
+		private final Map<UUID, Long> index = new HashMap<>();
+		private Segment active;
+		private boolean compacting, closed;
+		
+		private static class Segment {
+			final int id;
+			final File file;
+			final FileChannel channel;
+			final MappedByteBuffer buffer;
+			// records the segment has room for
+			final int capacity;
+			int count;
+			int live;
+			
+			Segment(int id, File file, int records) throws IOException {
+				this.id = id;
+				this.file = file;
+				this.capacity = records;
+				this.channel = new RandomAccessFile(file, "rw").getChannel();
+				this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) records * RECORD_SIZE);
+			}
+			
+			void close() {
+				buffer.force();
+				try {
+					channel.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+		
+		public SegmentFile(File segmentFolder, File importFolder, int segmentRecords) throws IOException {
+			this(segmentFolder, importFolder, segmentRecords, Logger.getLogger(SegmentFile.class.getName()));
+		}
+		
+		/**
+		 * @param segmentFolder where the segment files are kept
+		 * @param importFolder the JSON folder of {@link FlatFile}, imported if no segments exist yet, or null
+		 * @param segmentRecords the number of records per new segment file
+		 * @param logger where files that can't be imported or deleted are reported
+		 */
+		public SegmentFile(File segmentFolder, File importFolder, int segmentRecords, Logger logger) throws IOException {
+			super(DataType.SEGMENT);
+			this.folder = segmentFolder;
+			this.segmentRecords = segmentRecords;
+			this.logger = logger;
+			if(!folder.isDirectory() && !folder.mkdirs()) throw new IOException("Couldn't create " + folder);
+			File marker = new File(folder, IMPORT_MARKER);
+			if(marker.exists()) {
+				// the JSON files are untouched, so the import starts over
+				logger.warning("The last import of " + folder + " was interrupted, importing again");
+				File[] partial = folder.listFiles((dir, name) -> SEGMENT_NAME.matcher(name).matches());
+				if(partial != null) {
+					for(File f : partial) {
+						if(!f.delete()) throw new IOException("Couldn't delete " + f.getName() + " of the interrupted import");
+					}
+				}
+			}
+			File[] files = folder.listFiles();
+			if(files != null) {
+				for(File f : files) {
+					Matcher m = SEGMENT_NAME.matcher(f.getName());
+					// copies and other stray files are left alone
+					if(!f.isFile() || !m.matches()) continue;
+					long length = f.length();
+					if(length == 0 || length % RECORD_SIZE != 0 || length / RECORD_SIZE > Integer.MAX_VALUE) 
+						throw new IOException(f.getName() + " isn't a whole number of records, refusing to open the segment store");
+					int id = Integer.parseInt(m.group(1));
+					segments.put(id, new Segment(id, f, (int) (length / RECORD_SIZE)));
+				}
+			}
+			// replay oldest first, later records replace earlier ones in the index
+			for(Segment s : segments.values()) load(s);
+			if(segments.isEmpty()) {
+				active = newSegment(0);
+				if(importFolder != null && importFolder.isDirectory()) {
+					if(!marker.exists() && !marker.createNewFile()) throw new IOException("Couldn't create " + marker);
+					importJson(importFolder);
+					// the segments are on disk before the marker goes
+					force();
+					if(!marker.delete()) throw new IOException("Couldn't delete " + marker);
+				}
+			} else {
+				active = segments.lastEntry().getValue();
+			}
+		}
+		
+		private void load(Segment s) {
+			byte[] rec = new byte[RECORD_SIZE];
+			for(int slot = 0; slot < s.capacity; slot++) {
+				read(s, slot, rec);
+				// the first empty or torn record ends the segment
+				if(!isValid(rec)) break;
+				ByteBuffer b = ByteBuffer.wrap(rec);
+				UUID uuid = new UUID(b.getLong(0), b.getLong(8));
+				Long old = index.put(uuid, location(s.id, slot));
+				if(old != null) segments.get(segmentOf(old)).live--;
+				s.count = slot + 1;
+				s.live++;
+			}
+		}
+		
+		private void importJson(File importFolder) {
+			File[] files = importFolder.listFiles((dir, name) -> name.endsWith(".json"));
+			if(files == null) return;
+			JsonParser parser = new JsonParser();
+			long now = System.currentTimeMillis();
+			int imported = 0;
+			for(File f : files) {
+				try(FileReader fr = new FileReader(f)) {
+					UUID uuid = UUID.fromString(f.getName().substring(0, f.getName().length() - 5));
+					JsonElement je = parser.parse(fr);
+					if(!je.isJsonObject()) continue;
+					JsonObject jo = je.getAsJsonObject();
+					int level = jo.has("level") ? jo.get("level").getAsInt() : 1;
+					long exp = jo.has("experience") ? jo.get("experience").getAsLong() : 0;
+					append(uuid, level, exp, now, now);
+					imported++;
+				} catch (IOException | RuntimeException e) {
+					logger.warning("Couldn't import " + f.getName() + ": " + e);
+				}
+			}
+			if(imported > 0) logger.info("Imported " + imported + " of " + files.length + " players into " + folder);
+		}
+		
+		private Segment newSegment(int id) {
+			try {
+				Segment s = new Segment(id, new File(folder, String.format("segment-%08d.dat", id)), segmentRecords);
+				segments.put(id, s);
+				return s;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		
+		private static long location(int segment, int slot) {
+			return ((long) segment << 32) | slot;
+		}
+		
+		private static int segmentOf(long location) {
+			return (int) (location >>> 32);
+		}
+		
+		private static int slotOf(long location) {
+			return (int) location;
+		}
+		
+		private static void read(Segment s, int slot, byte[] rec) {
+			ByteBuffer b = s.buffer.duplicate();
+			b.position(slot * RECORD_SIZE);
+			b.get(rec);
+		}
+		
+		private static boolean isValid(byte[] rec) {
+			CRC32 crc = new CRC32();
+			crc.update(rec, 0, CRC_OFFSET);
+			return (int) crc.getValue() == ByteBuffer.wrap(rec).getInt(CRC_OFFSET);
+		}
+		
+		/**
+		 * @return the record of the player, or null if there is none
+		 */
+		private ByteBuffer find(UUID uuid) {
+			Long loc = index.get(uuid);
+			if(loc == null) return null;
+			byte[] rec = new byte[RECORD_SIZE];
+			read(segments.get(segmentOf(loc)), slotOf(loc), rec);
+			return ByteBuffer.wrap(rec);
+		}
+		
+		private void append(UUID uuid, int level, long exp, long created, long updated) {
+			if(active.count >= active.capacity) {
+				active.buffer.force();
+				active = newSegment(active.id + 1);
+				compactAsync();
+			}
+			ByteBuffer b = ByteBuffer.allocate(RECORD_SIZE);
+			b.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits())
+				.putInt(level).putLong(exp).putLong(created).putLong(updated);
+			CRC32 crc = new CRC32();
+			crc.update(b.array(), 0, CRC_OFFSET);
+			b.putInt((int) crc.getValue());
+			ByteBuffer dst = active.buffer.duplicate();
+			dst.position(active.count * RECORD_SIZE);
+			dst.put(b.array());
+			Long old = index.put(uuid, location(active.id, active.count));
+			if(old != null) segments.get(segmentOf(old)).live--;
+			active.count++;
+			active.live++;
+		}
+		
+		/**
+		 * Forces the active segment to disk, earlier ones were forced when they filled up.
+		 */
+		private void force() {
+			active.buffer.force();
+		}
+		
+		private static JsonObject toJson(UUID uuid, ByteBuffer rec) {
+			JsonObject j = new JsonObject();
+			j.addProperty("uuid", uuid.toString());
+			j.addProperty("level", rec.getInt(16));
+			j.addProperty("experience", rec.getLong(20));
+			j.addProperty("created", rec.getLong(28));
+			j.addProperty("updated", rec.getLong(36));
+			return j;
+		}
+		
+		private static UUID parseUuid(String key, BsonValue value) {
+			if(!key.equalsIgnoreCase("uuid") || !value.isString()) return null;
+			try {
+				return UUID.fromString(value.asString().getValue());
+			} catch(IllegalArgumentException e) {
+				return null;
+			}
+		}
+		
+		private void compactAsync() {
+			if(compacting) return;
+			compacting = true;
+			supplyAsync(() -> {
+				compact();
+				return null;
+			}).whenComplete((v, t) -> {
+				synchronized(this) {
+					compacting = false;
+				}
+				if(t != null) t.printStackTrace();
+			});
+		}
+		
+		/**
+		 * Copies the live records of sparse sealed segments to the active segment and deletes them.
+		 * Each segment is copied under the lock, other segments stay readable in between.
+		 */
+		public void compact() {
+			List<Integer> sparse = new ArrayList<>();
+			synchronized(this) {
+				for(Segment s : segments.values()) {
+					if(s != active && s.live < s.count * COMPACT_RATIO) sparse.add(s.id);
+				}
+			}
+			for(int id : sparse) {
+				synchronized(this) {
+					// a compaction still queued when the store closed leaves the files to the next start
+					if(closed) return;
+					Segment s = segments.get(id);
+					if(s == null || s == active) continue;
+					byte[] rec = new byte[RECORD_SIZE];
+					for(int slot = 0; slot < s.count && s.live > 0; slot++) {
+						read(s, slot, rec);
+						ByteBuffer b = ByteBuffer.wrap(rec);
+						UUID uuid = new UUID(b.getLong(0), b.getLong(8));
+						Long loc = index.get(uuid);
+						if(loc == null || loc != location(id, slot)) continue;
+						append(uuid, b.getInt(16), b.getLong(20), b.getLong(28), b.getLong(36));
+					}
+					// the copies must be on disk before the originals are gone
+					force();
+					segments.remove(id);
+					s.close();
+					if(!s.file.delete()) logger.warning("Couldn't delete compacted " + s.file.getName());
+				}
+			}
+		}
+		
+		@Override
+		public synchronized void close() {
+			closed = true;
+			for(Segment s : segments.values()) s.close();
+		}
+		
+		@Override
+		public synchronized PlayerRecord getRecord(UUID uuid) {
+			ByteBuffer rec = find(uuid);
+			return rec == null ? null : new PlayerRecord(uuid, rec.getInt(16), rec.getLong(20));
+		}
+		
+		@Override
+		public synchronized Map<UUID, PlayerRecord> getRecords(Collection<UUID> uuids) {
+			Map<UUID, PlayerRecord> out = new HashMap<>();
+			for(UUID u : uuids) {
+				PlayerRecord r = getRecord(u);
+				if(r != null) out.put(u, r);
+			}
+			return out;
+		}
+		
+		/**
+		 * Only holds the lock while copying the index, the records are read afterwards.
+		 */
+		@Override
+		public void forEachRecord(Consumer<PlayerRecord> action) {
+			List<UUID> uuids;
+			synchronized(this) {
+				uuids = new ArrayList<>(index.keySet());
+			}
+			for(UUID uuid : uuids) {
+				PlayerRecord r = getRecord(uuid);
+				if(r != null) action.accept(r);
+			}
+		}
+		
+		/**
+		 * Appends the record, keeping the creation time of the one it replaces, without forcing it.
+		 */
+		private boolean write(UUID uuid, ByteBuffer old, int level, long exp) {
+			long now = System.currentTimeMillis();
+			try {
+				append(uuid, level, exp, old == null ? now : old.getLong(28), now);
+				return true;
+			} catch (UncheckedIOException e) {
+				e.printStackTrace();
+				return false;
+			}
+		}
+		
+		/**
+		 * Forces what a write appended.
+		 * @return whether it is on disk
+		 */
+		private boolean sync() {
+			try {
+				force();
+				return true;
+			} catch (Exception e) {
+				// older JDKs throw the IOException of a failed msync unchecked
+				e.printStackTrace();
+				return false;
+			}
+		}
+		
+		private boolean setRecordUnforced(PlayerRecord record) {
+			return write(record.getUniqueId(), find(record.getUniqueId()), record.getLevel(), record.getExperience());
+		}
+		
+		private boolean setLevelUnforced(UUID uuid, int level) {
+			ByteBuffer rec = find(uuid);
+			return write(uuid, rec, level, rec == null ? 0 : rec.getLong(20));
+		}
+		
+		private long incrementUnforced(UUID uuid, long delta) {
+			ByteBuffer rec = find(uuid);
+			long exp = (rec == null ? 0 : rec.getLong(20)) + delta;
+			return write(uuid, rec, rec == null ? 1 : rec.getInt(16), exp) ? exp : -1;
+		}
+		
+		@Override
+		public synchronized boolean setRecord(PlayerRecord record) {
+			return setRecordUnforced(record) && sync();
+		}
+		
+		@Override
+		public synchronized boolean setLevel(UUID uuid, int level) {
+			return setLevelUnforced(uuid, level) && sync();
+		}
+		
+		/**
+		 * An increment whose force failed still returns its total, it is already applied and a retry would count it twice.
+		 */
+		@Override
+		public synchronized long incrementExperience(UUID uuid, long delta) {
+			long exp = incrementUnforced(uuid, delta);
+			if(exp >= 0) sync();
+			return exp;
+		}
+		
+		/**
+		 * Appends every record, then forces them all at once.
+		 */
+		@Override
+		public synchronized boolean[] setRecords(List<PlayerRecord> records) {
+			boolean[] out = new boolean[records.size()];
+			for(int i = 0; i < out.length; i++) out[i] = setRecordUnforced(records.get(i));
+			if(!sync()) Arrays.fill(out, false);
+			return out;
+		}
+		
+		/**
+		 * Appends every record, then forces them all at once.
+		 */
+		@Override
+		public synchronized boolean[] setLevels(List<UUID> uuids, int[] levels) {
+			boolean[] out = new boolean[uuids.size()];
+			for(int i = 0; i < out.length; i++) out[i] = setLevelUnforced(uuids.get(i), levels[i]);
+			if(!sync()) Arrays.fill(out, false);
+			return out;
+		}
+		
+		/**
+		 * Appends every record, then forces them all at once. Totals are returned even if the force failed, as above.
+		 */
+		@Override
+		public synchronized long[] incrementExperience(List<UUID> uuids, long[] deltas) {
+			long[] out = new long[uuids.size()];
+			for(int i = 0; i < out.length; i++) out[i] = incrementUnforced(uuids.get(i), deltas[i]);
+			sync();
+			return out;
+		}
+		
+		@Override
+		public synchronized Set<JsonElement> getData(String key, BsonValue value) {
+			Set<JsonElement> out = new HashSet<>();
+			UUID uuid = parseUuid(key, value);
+			if(uuid == null) return null;
+			ByteBuffer rec = find(uuid);
+			if(rec != null) out.add(toJson(uuid, rec));
+			return out;
+		}
+		
+		/**
+		 * Only holds the lock while copying the index, the records are read afterwards.
+		 */
+		@Override
+		public void forEachData(Consumer<JsonElement> action) {
+			List<UUID> uuids;
+			synchronized(this) {
+				uuids = new ArrayList<>(index.keySet());
+			}
+			for(UUID uuid : uuids) {
+				ByteBuffer rec;
+				synchronized(this) {
+					rec = find(uuid);
+				}
+				if(rec != null) action.accept(toJson(uuid, rec));
+			}
+		}
+		
+		/**
+		 * There is no sorted index, every record is read and the best entries past the seek point are kept.
+		 */
+		@Override
+		public List<JsonElement> getDataSorted(String field, long min, long max, JsonObject after, int limit) {
+			checkSortField(field);
+			Comparator<JsonObject> order = Comparator.<JsonObject>comparingLong(j -> -j.get(field).getAsLong())
+					.thenComparing(j -> j.get("uuid").getAsString());
+			TreeSet<JsonObject> best = new TreeSet<>(order);
+			forEachData(j -> {
+				JsonObject jo = j.getAsJsonObject();
+				long v = jo.get(field).getAsLong();
+				if(v < min || v > max || limit <= 0) return;
+				if(after != null && order.compare(jo, after) <= 0) return;
+				best.add(jo);
+				if(best.size() > limit) best.pollLast();
+			});
+			return new ArrayList<>(best);
+		}
+		
+		@Override
+		public synchronized boolean setData(String keyWhere, BsonValue valueWhere, List<BsonElement> elements) {
+			UUID uuid = parseUuid(keyWhere, valueWhere);
+			if(uuid == null) return false;
+			ByteBuffer rec = find(uuid);
+			int level = rec == null ? 1 : rec.getInt(16);
+			long exp = rec == null ? 0 : rec.getLong(20);
+			for(BsonElement el : elements) {
+				BsonValue v = el.getValue();
+				if(!v.isNumber()) continue;
+				if(el.getName().equals("level")) level = v.asNumber().intValue();
+				else if(el.getName().equals("experience")) exp = v.asNumber().longValue();
+			}
+			return write(uuid, rec, level, exp) && sync();
+		}
+		
+	}
+	
 }
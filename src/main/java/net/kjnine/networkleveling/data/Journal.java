@@ -0,0 +1,433 @@
+package net.kjnine.networkleveling.data;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Local append-only write-ahead journal of level and experience changes.
+ * Changes are acknowledged once they are synced to disk, and kept until the profile cache
+ * confirms they are stored, so they survive a crash or a storage outage.
+ * One thread writes and syncs appends in groups, waiting at most the sync interval for more.
+ * <p>
+ * Every record gets a sequence number. Once the cache has stored a player's changes up to a sequence,
+ * it appends a STORED record for them, and replay skips every change it covers, so a change is
+ * replayed only if it wasn't stored, or was stored less than a sync interval before a crash.
+ * The journal is split into files: the cache seals the current file before a flush, and afterwards
+ * the oldest sealed files are deleted as long as every change in them is stored.
+ */
+public class Journal implements Closeable {
+
+	public static final byte SET = 1, EXPERIENCE = 2;
+	// the player's changes up to the sequence in the value are stored
+	static final byte STORED = 3;
+
+	// type (1), uuid (16), level (4), experience, gain or stored sequence (8), sequence (8), crc32 of the previous bytes (4)
+	static final int RECORD_SIZE = 41;
+	private static final int MAX_GROUP = 4096;
+	private static final String PREFIX = "journal-", SUFFIX = ".log";
+
+	/**
+	 * One journaled change.
+	 * A SET overwrites level and experience, an EXPERIENCE adds the value to the experience
+	 * and raises the level to at least the given one.
+	 */
+	public static final class Entry {
+
+		private final byte type;
+		private final UUID uuid;
+		private final int level;
+		private final long value;
+		private final long sequence;
+
+		Entry(byte type, UUID uuid, int level, long value, long sequence) {
+			this.type = type;
+			this.uuid = uuid;
+			this.level = level;
+			this.value = value;
+			this.sequence = sequence;
+		}
+
+		public byte getType() {
+			return type;
+		}
+
+		public UUID getUniqueId() {
+			return uuid;
+		}
+
+		public int getLevel() {
+			return level;
+		}
+
+		public long getValue() {
+			return value;
+		}
+
+		public long getSequence() {
+			return sequence;
+		}
+
+	}
+
+	/**
+	 * Completes once its record is synced to disk.
+	 */
+	public static final class Ack extends CompletableFuture<Void> {
+
+		private final long sequence;
+
+		Ack(long sequence) {
+			this.sequence = sequence;
+		}
+
+		/**
+		 * @return the sequence of the record, to pass to {@link Journal#stored(UUID, long)} once it is stored, 0 if the journal is disabled
+		 */
+		public long getSequence() {
+			return sequence;
+		}
+
+	}
+
+	private static final class Append {
+
+		final byte type;
+		final UUID uuid;
+		final byte[] record;
+		final Ack result;
+
+		Append(byte type, UUID uuid, byte[] record, long sequence) {
+			this.type = type;
+			this.uuid = uuid;
+			this.record = record;
+			this.result = new Ack(sequence);
+		}
+
+	}
+
+	private static final Append STOP = new Append((byte) 0, null, null, 0);
+
+	private final File folder;
+	private final long syncInterval;
+	private final Logger logger;
+	private final BlockingQueue<Append> queue = new LinkedBlockingQueue<>();
+	// guards the channel, held while a group is written and while the file is sealed
+	private final Object lock = new Object();
+	private final long first;
+	private FileChannel channel;
+	private long current;
+	// guarded by queue
+	private long sequence;
+	private boolean closed;
+	private Thread writer;
+	// guarded by coverage: the newest change sequence of each player in each file, and the newest stored one of each player
+	private final Object coverage = new Object();
+	private final TreeMap<Long, Map<UUID, Long>> changes = new TreeMap<>();
+	private final Map<UUID, Long> stored = new HashMap<>();
+	// changes left by earlier runs, read when opened
+	private final List<Entry> leftover = new ArrayList<>();
+
+	/**
+	 * A disabled journal, appends are acknowledged right away and nothing is kept.
+	 */
+	public Journal() {
+		this.folder = null;
+		this.syncInterval = 0;
+		this.logger = null;
+		this.first = 0;
+	}
+
+	/**
+	 * @param syncInterval most milliseconds an append waits to be synced with others, 0 syncs as soon as the writer gets to it
+	 */
+	public Journal(File folder, long syncInterval, Logger logger) throws IOException {
+		this.folder = folder;
+		this.syncInterval = Math.max(0, syncInterval);
+		this.logger = logger;
+		if(!folder.exists()) folder.mkdirs();
+		TreeMap<Long, File> files = files();
+		this.first = files.isEmpty() ? 0 : files.lastKey() + 1;
+		for(Map.Entry<Long, File> f : files.entrySet()) read(f.getKey(), f.getValue());
+		this.current = first;
+		this.channel = open(first);
+		writer = new Thread(this::run, "NetworkLeveling-Journal");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	public boolean isEnabled() {
+		return folder != null;
+	}
+
+	/**
+	 * The caller must append the changes of one player in the order they were made,
+	 * the profile cache does so while holding the profile's lock.
+	 * @return completes once the change is synced to disk
+	 */
+	public Ack append(byte type, UUID uuid, int level, long value) {
+		if(folder == null) {
+			Ack done = new Ack(0);
+			done.complete(null);
+			return done;
+		}
+		synchronized(queue) {
+			Append a = new Append(type, uuid, encode(type, uuid, level, value, sequence + 1), sequence + 1);
+			if(closed) {
+				a.result.completeExceptionally(new IllegalStateException("Journal is closed"));
+				return a.result;
+			}
+			sequence++;
+			queue.add(a);
+			return a.result;
+		}
+	}
+
+	/**
+	 * Marks the player's changes up to and including the sequence as stored, so they are neither replayed nor kept.
+	 * The mark itself is journaled without waiting for it.
+	 */
+	public void stored(UUID uuid, long sequence) {
+		if(folder == null || sequence <= 0) return;
+		synchronized(coverage) {
+			stored.merge(uuid, sequence, Math::max);
+		}
+		append(STORED, uuid, 0, sequence);
+	}
+
+	private static byte[] encode(byte type, UUID uuid, int level, long value, long sequence) {
+		ByteBuffer b = ByteBuffer.allocate(RECORD_SIZE);
+		b.put(type);
+		b.putLong(uuid.getMostSignificantBits());
+		b.putLong(uuid.getLeastSignificantBits());
+		b.putInt(level);
+		b.putLong(value);
+		b.putLong(sequence);
+		CRC32 crc = new CRC32();
+		crc.update(b.array(), 0, RECORD_SIZE - 4);
+		b.putInt((int) crc.getValue());
+		return b.array();
+	}
+
+	/**
+	 * Reads a file left by an earlier run. A torn record ends the file.
+	 */
+	private void read(long id, File f) {
+		try(FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer b = ByteBuffer.allocate((int) ch.size());
+			while(b.hasRemaining() && ch.read(b) >= 0);
+			b.flip();
+			byte[] rec = new byte[RECORD_SIZE];
+			CRC32 crc = new CRC32();
+			Map<UUID, Long> inFile = new HashMap<>();
+			while(b.remaining() >= RECORD_SIZE) {
+				b.get(rec);
+				crc.reset();
+				crc.update(rec, 0, RECORD_SIZE - 4);
+				ByteBuffer r = ByteBuffer.wrap(rec);
+				if((int) crc.getValue() != r.getInt(RECORD_SIZE - 4)) break;
+				Entry e = new Entry(r.get(0), new UUID(r.getLong(1), r.getLong(9)), r.getInt(17), r.getLong(21), r.getLong(29));
+				sequence = Math.max(sequence, e.sequence);
+				if(e.type == STORED) {
+					stored.merge(e.uuid, e.value, Math::max);
+				} else {
+					inFile.merge(e.uuid, e.sequence, Math::max);
+					leftover.add(e);
+				}
+			}
+			changes.put(id, inFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return the changes left by earlier runs that weren't stored, oldest first
+	 */
+	public List<Entry> replay() {
+		List<Entry> entries = new ArrayList<>();
+		synchronized(coverage) {
+			for(Entry e : leftover) {
+				if(e.sequence > stored.getOrDefault(e.uuid, 0L)) entries.add(e);
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Seals the current file, appends from now on go to a new one.
+	 * Appends still waiting for the writer also go to the new file.
+	 */
+	public void seal() {
+		if(folder == null) return;
+		synchronized(lock) {
+			if(channel == null) return;
+			try {
+				FileChannel next = open(current + 1);
+				channel.close();
+				channel = next;
+				current++;
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Deletes the oldest sealed files as long as every change in them is stored.
+	 * Stops at the first file with a change that isn't, so a STORED record is never deleted
+	 * while a change it covers is still on disk.
+	 */
+	public void truncate() {
+		if(folder == null) return;
+		synchronized(lock) {
+			synchronized(coverage) {
+				for(Map.Entry<Long, File> f : files().headMap(current).entrySet()) {
+					Map<UUID, Long> inFile = changes.get(f.getKey());
+					if(inFile != null) {
+						boolean covered = true;
+						for(Map.Entry<UUID, Long> c : inFile.entrySet()) {
+							if(c.getValue() > stored.getOrDefault(c.getKey(), 0L)) {
+								covered = false;
+								break;
+							}
+						}
+						if(!covered) break;
+					}
+					if(!f.getValue().delete()) {
+						logger.warning("Couldn't delete journal file " + f.getValue().getName());
+						break;
+					}
+					changes.remove(f.getKey());
+				}
+				// the marks of players without changes left on disk aren't needed anymore
+				Set<UUID> kept = new HashSet<>();
+				for(Map<UUID, Long> inFile : changes.values()) kept.addAll(inFile.keySet());
+				stored.keySet().retainAll(kept);
+			}
+		}
+	}
+
+	private TreeMap<Long, File> files() {
+		TreeMap<Long, File> files = new TreeMap<>();
+		File[] list = folder.listFiles((dir, name) -> name.startsWith(PREFIX) && name.endsWith(SUFFIX));
+		if(list == null) return files;
+		for(File f : list) {
+			String n = f.getName();
+			try {
+				files.put(Long.parseLong(n.substring(PREFIX.length(), n.length() - SUFFIX.length())), f);
+			} catch (NumberFormatException e) {
+				// not one of ours
+			}
+		}
+		return files;
+	}
+
+	private FileChannel open(long id) throws IOException {
+		File f = new File(folder, String.format("%s%016d%s", PREFIX, id, SUFFIX));
+		return FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+	}
+
+	/**
+	 * Group commit: takes the first waiting append, collects more for up to the sync interval,
+	 * writes them with one write and one fsync, then acknowledges all of them.
+	 */
+	private void run() {
+		List<Append> group = new ArrayList<>();
+		boolean stop = false;
+		while(!stop) {
+			try {
+				Append a = queue.take();
+				if(a == STOP) break;
+				group.add(a);
+				long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(syncInterval);
+				while(group.size() < MAX_GROUP) {
+					long wait = deadline - System.nanoTime();
+					a = wait > 0 ? queue.poll(wait, TimeUnit.NANOSECONDS) : queue.poll();
+					if(a == null) break;
+					if(a == STOP) {
+						stop = true;
+						break;
+					}
+					group.add(a);
+				}
+			} catch (InterruptedException e) {
+				stop = true;
+			}
+			if(!group.isEmpty()) write(group);
+			group.clear();
+		}
+	}
+
+	private void write(List<Append> group) {
+		ByteBuffer b = ByteBuffer.allocate(group.size() * RECORD_SIZE);
+		for(Append a : group) b.put(a.record);
+		b.flip();
+		IOException failure = null;
+		synchronized(lock) {
+			// tracked before the write, a failed write may still have put some of the records on disk
+			synchronized(coverage) {
+				Map<UUID, Long> inFile = changes.computeIfAbsent(current, id -> new HashMap<>());
+				for(Append a : group) {
+					if(a.type != STORED) inFile.merge(a.uuid, a.result.sequence, Math::max);
+				}
+			}
+			try {
+				if(channel == null) throw new IOException("Journal is closed");
+				while(b.hasRemaining()) channel.write(b);
+				channel.force(false);
+			} catch (IOException e) {
+				failure = e;
+			}
+		}
+		for(Append a : group) {
+			if(failure == null) a.result.complete(null);
+			else a.result.completeExceptionally(failure);
+		}
+	}
+
+	/**
+	 * Writes and syncs every waiting append, then closes the current file.
+	 * Files that weren't truncated are replayed on the next start.
+	 */
+	@Override
+	public void close() {
+		if(folder == null) return;
+		synchronized(queue) {
+			if(closed) return;
+			closed = true;
+			queue.add(STOP);
+		}
+		try {
+			writer.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		synchronized(lock) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			channel = null;
+		}
+	}
+
+}
@@ -0,0 +1,376 @@
+package net.kjnine.networkleveling.data;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Binary wire format of NetworkMessage.
+ * <p>
+ * A message is the MAGIC byte, a version byte, then any number of fields until the end of the data.
+ * Every field starts with a one byte tag, {@code field << 3 | wire type}, followed by its value:
+ * a varint (zigzag encoded when signed), 16 fixed bytes, or a varint length and that many bytes.
+ * Decoders skip fields they don't know, so fields can be added without a new version.
+ * <p>
+ * Data not starting with MAGIC is read as the legacy {@link ByteMessage} format,
+ * which {@link #encodeLegacy(NetworkMessage)} writes for backends that haven't updated.
+ */
+public final class MessageCodec {
+	
+	public static final byte MAGIC = (byte) 0xD7;
+	public static final byte VERSION = 1;
+	
+	static final int WIRE_VARINT = 0, WIRE_FIXED128 = 1, WIRE_BYTES = 2;
+	
+	static final int SUBCHANNEL = 1,
+			UUID = 2,
+			SERVER_SOURCE = 3,
+			SERVER_TARGET = 4,
+			LEVEL = 5,
+			EXPERIENCE = 6,
+			CORRELATION_ID = 7,
+			// packed lists: UUIDs as 16 bytes each, levels and experience as zigzag varints
+			UUIDS = 8,
+			LEVELS = 9,
+			EXPERIENCES = 10,
+			OFFSET = 11,
+			LIMIT = 12,
+			RANK = 13,
+			REASON = 14;
+	
+	private static final ThreadLocal<Writer> WRITER = ThreadLocal.withInitial(Writer::new);
+	
+	private MessageCodec() { }
+	
+	public static boolean isBinary(byte[] data) {
+		return data.length >= 2 && data[0] == MAGIC;
+	}
+	
+	public static byte[] encode(NetworkMessage msg) {
+		Writer w = WRITER.get().reset();
+		w.writeByte(MAGIC);
+		w.writeByte(VERSION);
+		if(msg.getSubChannel() != null) {
+			w.writeTag(SUBCHANNEL, WIRE_VARINT);
+			w.writeVarLong(msg.getSubChannel().getId());
+		}
+		if(msg.hasUniqueId()) {
+			w.writeTag(UUID, WIRE_FIXED128);
+			w.writeLong(msg.getUniqueIdMost());
+			w.writeLong(msg.getUniqueIdLeast());
+		}
+		if(msg.getServerSource() != null) {
+			w.writeTag(SERVER_SOURCE, WIRE_BYTES);
+			w.writeString(msg.getServerSource());
+		}
+		if(msg.getServerTarget() != null) {
+			w.writeTag(SERVER_TARGET, WIRE_BYTES);
+			w.writeString(msg.getServerTarget());
+		}
+		if(msg.getReason() != null) {
+			w.writeTag(REASON, WIRE_BYTES);
+			w.writeString(msg.getReason());
+		}
+		if(msg.hasLevel()) {
+			w.writeTag(LEVEL, WIRE_VARINT);
+			w.writeVarLong(zigzag(msg.getLevel()));
+		}
+		if(msg.hasExperience()) {
+			w.writeTag(EXPERIENCE, WIRE_VARINT);
+			w.writeVarLong(zigzag(msg.getExperience()));
+		}
+		if(msg.hasCorrelationId()) {
+			w.writeTag(CORRELATION_ID, WIRE_VARINT);
+			w.writeVarLong(msg.getCorrelationId());
+		}
+		if(msg.getOffset() != 0) {
+			w.writeTag(OFFSET, WIRE_VARINT);
+			w.writeVarLong(zigzag(msg.getOffset()));
+		}
+		if(msg.getLimit() != 0) {
+			w.writeTag(LIMIT, WIRE_VARINT);
+			w.writeVarLong(zigzag(msg.getLimit()));
+		}
+		if(msg.hasRank()) {
+			w.writeTag(RANK, WIRE_VARINT);
+			w.writeVarLong(zigzag(msg.getRank()));
+		}
+		if(msg.getUniqueIdCount() > 0) {
+			w.writeTag(UUIDS, WIRE_BYTES);
+			w.writeVarLong(msg.getUniqueIdCount() * 16L);
+			for(int i = 0; i < msg.getUniqueIdCount(); i++) {
+				w.writeLong(msg.getUniqueIdMostAt(i));
+				w.writeLong(msg.getUniqueIdLeastAt(i));
+			}
+		}
+		if(msg.getLevelCount() > 0) {
+			w.writeTag(LEVELS, WIRE_BYTES);
+			int start = w.beginLength();
+			for(int i = 0; i < msg.getLevelCount(); i++) w.writeVarLong(zigzag(msg.getLevelAt(i)));
+			w.endLength(start);
+		}
+		if(msg.getExperienceCount() > 0) {
+			w.writeTag(EXPERIENCES, WIRE_BYTES);
+			int start = w.beginLength();
+			for(int i = 0; i < msg.getExperienceCount(); i++) w.writeVarLong(zigzag(msg.getExperienceAt(i)));
+			w.endLength(start);
+		}
+		return w.toByteArray();
+	}
+	
+	/**
+	 * Whether the legacy format can hold the message: a single player message without the fields added with the binary format.
+	 */
+	public static boolean isLegacyCompatible(NetworkMessage msg) {
+		return (msg.getSubChannel() == null || msg.getSubChannel().getId() <= NetworkMessage.SubChannel.GET_EXPERIENCE.getId())
+				&& msg.getReason() == null && !msg.hasCorrelationId() && !msg.hasRank()
+				&& msg.getOffset() == 0 && msg.getLimit() == 0
+				&& msg.getUniqueIdCount() == 0 && msg.getLevelCount() == 0 && msg.getExperienceCount() == 0;
+	}
+	
+	/**
+	 * Writes the message as the keyed {@link ByteMessage} format.
+	 * @throws IllegalArgumentException if the message has fields the legacy format can't hold
+	 */
+	public static byte[] encodeLegacy(NetworkMessage msg) {
+		if(!isLegacyCompatible(msg)) throw new IllegalArgumentException("Message can't be written in the legacy format");
+		ByteArrayOutputStream bout = new ByteArrayOutputStream();
+		DataOutputStream dout = new DataOutputStream(bout);
+		try {
+			if(msg.getSubChannel() != null) {
+				dout.writeUTF("SubChannel");
+				dout.writeUTF(msg.getSubChannel().getName());
+			}
+			if(msg.hasUniqueId()) {
+				dout.writeUTF("UUID");
+				dout.writeLong(msg.getUniqueIdMost());
+				dout.writeLong(msg.getUniqueIdLeast());
+			}
+			if(msg.getServerSource() != null) {
+				dout.writeUTF("ServerSource");
+				dout.writeUTF(msg.getServerSource());
+			}
+			if(msg.getServerTarget() != null) {
+				dout.writeUTF("ServerTarget");
+				dout.writeUTF(msg.getServerTarget());
+			}
+			if(msg.hasLevel()) {
+				dout.writeUTF("Level");
+				dout.writeInt(msg.getLevel());
+			}
+			if(msg.hasExperience()) {
+				dout.writeUTF("Experience");
+				dout.writeLong(msg.getExperience());
+			}
+		} catch(IOException e) {
+			// a ByteArrayOutputStream doesn't throw
+			throw new IllegalStateException(e);
+		}
+		return bout.toByteArray();
+	}
+	
+	/**
+	 * Adds a ServerTarget field to already encoded data, used by adapters that broadcast to every server.
+	 */
+	public static byte[] appendServerTarget(byte[] data, String target) {
+		Writer w = WRITER.get().reset();
+		w.writeBytes(data, 0, data.length);
+		w.writeTag(SERVER_TARGET, WIRE_BYTES);
+		w.writeString(target);
+		return w.toByteArray();
+	}
+	
+	/**
+	 * Reads the data, binary or legacy, into the message.
+	 * @throws IllegalArgumentException if the data is malformed, or binary of a version this codec doesn't know
+	 */
+	public static NetworkMessage decode(byte[] data, NetworkMessage into) {
+		into.clear();
+		if(!isBinary(data)) return decodeLegacy(data, into);
+		// a newer version may change what known fields mean, not only add new ones
+		if(data[1] != VERSION) throw new IllegalArgumentException("Unsupported message version " + (data[1] & 0xFF));
+		int pos = 2;
+		try {
+			while(pos < data.length) {
+				int tag = data[pos++] & 0xFF;
+				int field = tag >>> 3, wire = tag & 7;
+				switch(wire) {
+				case WIRE_VARINT: {
+					long v = 0;
+					int shift = 0;
+					byte b;
+					do {
+						b = data[pos++];
+						v |= (long) (b & 0x7F) << shift;
+						shift += 7;
+					} while(b < 0 && shift < 70);
+					if(field == SUBCHANNEL) into.setSubChannel(NetworkMessage.SubChannel.byId((int) v));
+					else if(field == CORRELATION_ID) into.setCorrelationId(v);
+					else if(field == OFFSET) into.setOffset((int) unzigzag(v));
+					else if(field == LIMIT) into.setLimit((int) unzigzag(v));
+					else if(field == RANK) into.setRank((int) unzigzag(v));
+					else if(field == LEVEL) into.setLevel((int) unzigzag(v));
+					else if(field == EXPERIENCE) into.setExperience(unzigzag(v));
+					break;
+				}
+				case WIRE_FIXED128: {
+					if(pos + 16 > data.length) throw new IllegalArgumentException("Truncated message");
+					if(field == UUID) into.setUniqueId(readLong(data, pos), readLong(data, pos + 8));
+					pos += 16;
+					break;
+				}
+				case WIRE_BYTES: {
+					int len = 0, shift = 0;
+					byte b;
+					do {
+						b = data[pos++];
+						len |= (b & 0x7F) << shift;
+						shift += 7;
+					} while(b < 0 && shift < 35);
+					if(len < 0 || pos + len > data.length) throw new IllegalArgumentException("Truncated message");
+					if(field == SERVER_SOURCE) into.setServerSource(new String(data, pos, len, StandardCharsets.UTF_8));
+					else if(field == SERVER_TARGET) into.setServerTarget(new String(data, pos, len, StandardCharsets.UTF_8));
+					else if(field == REASON) into.setReason(new String(data, pos, len, StandardCharsets.UTF_8));
+					else if(field == UUIDS) {
+						if(len % 16 != 0) throw new IllegalArgumentException("Malformed UUID list");
+						for(int i = pos; i < pos + len; i += 16) into.addUniqueId(readLong(data, i), readLong(data, i + 8));
+					} else if(field == LEVELS || field == EXPERIENCES) {
+						int p = pos;
+						while(p < pos + len) {
+							long v = 0;
+							int vshift = 0;
+							byte vb;
+							do {
+								vb = data[p++];
+								v |= (long) (vb & 0x7F) << vshift;
+								vshift += 7;
+							} while(vb < 0 && vshift < 70);
+							if(field == LEVELS) into.addLevel((int) unzigzag(v));
+							else into.addExperience(unzigzag(v));
+						}
+					}
+					pos += len;
+					break;
+				}
+				default:
+					throw new IllegalArgumentException("Unknown wire type " + wire);
+				}
+			}
+		} catch(ArrayIndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Truncated message");
+		}
+		return into;
+	}
+	
+	private static NetworkMessage decodeLegacy(byte[] data, NetworkMessage into) {
+		Map<String, Object> dataMap = new ByteMessage(data).getDatamap();
+		if(dataMap.containsKey("SubChannel")) into.setSubChannel(NetworkMessage.SubChannel.byName((String) dataMap.get("SubChannel")));
+		if(dataMap.containsKey("UUID")) into.setUniqueId((UUID) dataMap.get("UUID"));
+		if(dataMap.containsKey("ServerSource")) into.setServerSource((String) dataMap.get("ServerSource"));
+		if(dataMap.containsKey("ServerTarget")) into.setServerTarget((String) dataMap.get("ServerTarget"));
+		if(dataMap.containsKey("Level")) into.setLevel((int) dataMap.get("Level"));
+		if(dataMap.containsKey("Experience")) into.setExperience((long) dataMap.get("Experience"));
+		return into;
+	}
+	
+	static long zigzag(long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+	
+	static long unzigzag(long v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+	
+	private static long readLong(byte[] b, int pos) {
+		long v = 0;
+		for(int i = 0; i < 8; i++) v = (v << 8) | (b[pos + i] & 0xFF);
+		return v;
+	}
+	
+	/**
+	 * Growable output buffer, one per thread.
+	 */
+	static class Writer {
+		
+		private byte[] buf = new byte[64];
+		private int pos;
+		
+		Writer reset() {
+			pos = 0;
+			return this;
+		}
+		
+		private void ensure(int n) {
+			if(pos + n > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, pos + n));
+		}
+		
+		void writeByte(int b) {
+			ensure(1);
+			buf[pos++] = (byte) b;
+		}
+		
+		void writeBytes(byte[] b, int off, int len) {
+			ensure(len);
+			System.arraycopy(b, off, buf, pos, len);
+			pos += len;
+		}
+		
+		void writeTag(int field, int wire) {
+			writeByte(field << 3 | wire);
+		}
+		
+		void writeVarLong(long v) {
+			ensure(10);
+			while((v & ~0x7FL) != 0) {
+				buf[pos++] = (byte) ((v & 0x7F) | 0x80);
+				v >>>= 7;
+			}
+			buf[pos++] = (byte) v;
+		}
+		
+		void writeLong(long v) {
+			ensure(8);
+			for(int i = 7; i >= 0; i--) buf[pos++] = (byte) (v >>> (i * 8));
+		}
+		
+		/**
+		 * Reserves room for a length prefix that is filled in by {@link #endLength(int)}.
+		 * @return the position of the content
+		 */
+		int beginLength() {
+			ensure(5);
+			pos += 5;
+			return pos;
+		}
+		
+		/**
+		 * Writes the length of everything since beginLength as a varint in front of it.
+		 */
+		void endLength(int start) {
+			int len = pos - start;
+			int size = 1;
+			for(int l = len >>> 7; l != 0; l >>>= 7) size++;
+			// move the content back so the varint fits exactly
+			System.arraycopy(buf, start, buf, start - 5 + size, len);
+			pos = start - 5;
+			writeVarLong(len);
+			pos += len;
+		}
+		
+		void writeString(String s) {
+			byte[] b = s.getBytes(StandardCharsets.UTF_8);
+			writeVarLong(b.length);
+			writeBytes(b, 0, b.length);
+		}
+		
+		byte[] toByteArray() {
+			return Arrays.copyOf(buf, pos);
+		}
+		
+	}
+	
+}
@@ -4,13 +4,17 @@ import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Base64;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
 import net.kjnine.networkleveling.NetworkLevelingPlugin;
@@ -19,9 +23,9 @@ import net.md_5.bungee.api.config.ServerInfo;
 import net.md_5.bungee.api.event.PluginMessageEvent;
 import net.md_5.bungee.api.plugin.Listener;
 import net.md_5.bungee.event.EventHandler;
+import redis.clients.jedis.BinaryJedisPubSub;
 import redis.clients.jedis.Jedis;
-import redis.clients.jedis.JedisPool;
-import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
 
 public abstract class MessagingAdapter {
 	
@@ -32,10 +36,12 @@ public abstract class MessagingAdapter {
 	
 	private String[] conn;
 	
+	private volatile boolean legacyOutput;
+	
 	public MessagingAdapter(AdapterType adapterType) {
 		type = adapterType;
-		this.listeners = new HashMap<>();
-		this.channels = new HashSet<>();
+		this.listeners = new ConcurrentHashMap<>();
+		this.channels = ConcurrentHashMap.newKeySet();
 	}
 	
 	public AdapterType getAdapterType() {
@@ -44,6 +50,25 @@ public abstract class MessagingAdapter {
 	
 	public abstract void registerChannel(String ch);
 	
+	/**
+	 * Makes messages for the servers use the legacy format while some of them haven't updated.
+	 */
+	public void setLegacyOutput(boolean legacyOutput) {
+		this.legacyOutput = legacyOutput;
+	}
+	
+	public boolean isLegacyOutput() {
+		return legacyOutput;
+	}
+	
+	/**
+	 * Encodes a message for {@link #sendData(ServerInfo, String, byte[])}, in the legacy format if enabled and the message fits it.
+	 * Messages between proxies are always binary.
+	 */
+	public byte[] encode(NetworkMessage msg) {
+		return legacyOutput && MessageCodec.isLegacyCompatible(msg) ? MessageCodec.encodeLegacy(msg) : MessageCodec.encode(msg);
+	}
+	
 	/**
 	 * Not required for pluginmessaging;
 	 */
@@ -73,6 +98,14 @@ public abstract class MessagingAdapter {
 	 */
 	public abstract boolean sendData(ServerInfo target, String channel, byte[] data);
 	
+	/**
+	 * Sends the data to the proxies listening on the channel, without a server target.
+	 * @return false if the adapter can't reach other proxies or the data wasn't sent
+	 */
+	public boolean sendToProxies(String channel, byte[] data) {
+		return false;
+	}
+	
 	public static class PluginMessaging extends MessagingAdapter {
 		
 		private ProxyServer server;
@@ -126,78 +159,260 @@ public abstract class MessagingAdapter {
 	
 	public static class Redis extends MessagingAdapter implements Closeable {
 
-		private JedisPool pool;
+		private Subscriber subscriber;
+		private Thread subscriberThread;
+		private volatile boolean closed;
+		
+		private BlockingQueue<byte[][]> outbound = new LinkedBlockingQueue<>(100000);
+		private Map<String, byte[]> channelNames = new ConcurrentHashMap<>();
+		private int batchSize;
+		private long batchLatency;
+		private Thread publisherThread;
 		
 		public Redis(String address, String port, String pass) {
+			this(address, port, pass, 64, 5);
+		}
+		
+		/**
+		 * @param batchSize most messages sent in one pipeline
+		 * @param batchLatency milliseconds a message waits for more to batch with
+		 */
+		public Redis(String address, String port, String pass, int batchSize, long batchLatency) {
 			super(AdapterType.REDIS);
 			super.setConnectionSettings(address, port, pass);
-			pool = new JedisPool(address, Integer.parseInt(port));
+			this.batchSize = Math.max(1, batchSize);
+			this.batchLatency = Math.max(0, batchLatency);
+			subscriber = new Subscriber();
+			publisherThread = new Thread(this::runPublisher, "NetworkLeveling Redis Publisher");
+			publisherThread.setDaemon(true);
+			publisherThread.start();
 		}
 		
+		private Jedis connect() {
+			Jedis j = new Jedis(super.conn[0], Integer.parseInt(super.conn[1]));
+			if(super.conn[2] != null && !super.conn[2].isEmpty()) j.auth(super.conn[2]);
+			return j;
+		}
+		
+		/**
+		 * Adds the channel to the shared subscription, starting the subscriber thread on first use.
+		 * Never blocks on Redis.
+		 */
 		@Override
-		public void registerChannel(String ch) {
-			super.channels.add(ch);
-			Jedis j = null;
-			try {
-				j = pool.getResource();
-				j.auth(super.conn[2]);
-				JedisPubSub jsub = new JedisPubSub() {
-					
-					@Override
-					public void onMessage(String channel, String message) {
-						if(channel.equals(ch) && listeners.containsKey(channel)) {
-							byte[] data = Base64.getDecoder().decode(message);
-							listeners.get(channel).forEach(c -> c.accept(data));
+		public synchronized void registerChannel(String ch) {
+			if(!super.channels.add(ch)) return;
+			if(subscriberThread == null) {
+				subscriberThread = new Thread(this::runSubscriber, "NetworkLeveling Redis Subscriber");
+				subscriberThread.setDaemon(true);
+				subscriberThread.start();
+			} else {
+				subscriber.subscribeMissing();
+			}
+		}
+		
+		/**
+		 * Holds one dedicated connection subscribed to every registered channel, reconnecting if it drops.
+		 */
+		private void runSubscriber() {
+			while(!closed) {
+				Jedis j = null;
+				try {
+					j = connect();
+					subscriber.subscribed.clear();
+					byte[][] chs = super.channels.stream().map(c -> c.getBytes(StandardCharsets.UTF_8)).toArray(byte[][]::new);
+					// blocks until unsubscribed or disconnected
+					j.subscribe(subscriber, chs);
+				} catch(Exception e) {
+					if(closed) break;
+					e.printStackTrace();
+					try {
+						Thread.sleep(1000);
+					} catch (InterruptedException ie) {
+						break;
+					}
+				} finally {
+					if(j != null) j.close();
+				}
+			}
+		}
+		
+		private class Subscriber extends BinaryJedisPubSub {
+			
+			private Set<String> subscribed = ConcurrentHashMap.newKeySet();
+			
+			@Override
+			public void onSubscribe(byte[] channel, int subscribedChannels) {
+				subscribed.add(new String(channel, StandardCharsets.UTF_8));
+				subscribeMissing();
+			}
+			
+			/**
+			 * Subscribes channels registered after the connection was made.
+			 */
+			synchronized void subscribeMissing() {
+				if(!isSubscribed()) return;
+				for(String ch : channels) {
+					if(!subscribed.contains(ch)) {
+						try {
+							subscribe(ch.getBytes(StandardCharsets.UTF_8));
+						} catch(Exception e) {
+							// picked up again when the subscriber reconnects
+							return;
 						}
 					}
-					
-				};
-				j.subscribe(jsub, ch);
-			} finally {
-				if(j != null)
-					j.close();
+				}
+			}
+			
+			@Override
+			public void onMessage(byte[] channel, byte[] message) {
+				List<Consumer<byte[]>> l = listeners.get(new String(channel, StandardCharsets.UTF_8));
+				if(l == null) return;
+				byte[] data = decodeLegacy(message);
+				for(Consumer<byte[]> c : l) {
+					try {
+						c.accept(data);
+					} catch(RuntimeException e) {
+						e.printStackTrace();
+					}
+				}
+			}
+			
+		}
+		
+		/**
+		 * Servers that haven't updated yet still publish Base64 text.
+		 * Raw payloads start with the codec magic byte or a legacy key length, neither is a Base64 character.
+		 */
+		private static byte[] decodeLegacy(byte[] message) {
+			if(message.length == 0 || message[0] == MessageCodec.MAGIC || message[0] == 0) return message;
+			try {
+				return Base64.getDecoder().decode(message);
+			} catch(IllegalArgumentException e) {
+				return message;
 			}
 		}
 
+		/**
+		 * Queues the data for the publisher thread, as Base64 text with legacy output.
+		 * @return false if the queue is full or the adapter is closed
+		 */
 		@Override
 		public boolean sendData(ServerInfo target, String channel, byte[] data) {
+			if(closed) return false;
+			byte[] fin;
+			if(MessageCodec.isBinary(data)) {
+				fin = MessageCodec.appendServerTarget(data, target.getName());
+			} else {
+				try {
+					ByteArrayOutputStream bout = new ByteArrayOutputStream();
+					DataOutputStream dout = new DataOutputStream(bout);
+					dout.writeUTF("ServerTarget");
+					dout.writeUTF(target.getName());
+					dout.write(data, 0, data.length);
+					fin = bout.toByteArray();
+				} catch (IOException e) {
+					e.printStackTrace();
+					return false;
+				}
+			}
+			if(isLegacyOutput()) fin = Base64.getEncoder().encode(fin);
+			byte[] ch = channelNames.computeIfAbsent(channel, c -> c.getBytes(StandardCharsets.UTF_8));
+			return outbound.offer(new byte[][] {ch, fin});
+		}
+		
+		/**
+		 * Queues the data for the publisher thread as it is.
+		 * @return false if the queue is full or the adapter is closed
+		 */
+		@Override
+		public boolean sendToProxies(String channel, byte[] data) {
+			if(closed) return false;
+			byte[] ch = channelNames.computeIfAbsent(channel, c -> c.getBytes(StandardCharsets.UTF_8));
+			return outbound.offer(new byte[][] {ch, data});
+		}
+		
+		/**
+		 * Sends queued messages through pipelines on one long-lived connection. 
+		 * A batch is sent once it holds batchSize messages, or batchLatency after its first message.
+		 * A failed batch is retried on a new connection.
+		 */
+		private void runPublisher() {
 			Jedis j = null;
-			try {
-				ByteArrayOutputStream bout = new ByteArrayOutputStream();
-				DataOutputStream dout = new DataOutputStream(bout);
-				dout.writeUTF("ServerTarget");
-				dout.writeUTF(target.getName());
-				dout.write(data, 0, data.length);
-				byte[] fin = bout.toByteArray();
-				String message = Base64.getEncoder().encodeToString(fin);
-				j = pool.getResource();
-				j.auth(super.conn[2]);
-				j.publish(channel, message);
-			} catch (Exception e) {
-				e.printStackTrace();
-				return false;
-			} finally {
-				if(j != null)
-					j.close();
+			List<byte[][]> batch = new ArrayList<>(batchSize);
+			while(!closed) {
+				try {
+					if(batch.isEmpty()) {
+						byte[][] first = outbound.take();
+						batch.add(first);
+						long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchLatency);
+						outbound.drainTo(batch, batchSize - batch.size());
+						while(batch.size() < batchSize) {
+							long wait = deadline - System.nanoTime();
+							if(wait <= 0) break;
+							byte[][] next = outbound.poll(wait, TimeUnit.NANOSECONDS);
+							if(next == null) break;
+							batch.add(next);
+							outbound.drainTo(batch, batchSize - batch.size());
+						}
+					}
+					if(j == null) j = connect();
+					publish(j, batch);
+					batch.clear();
+				} catch(InterruptedException e) {
+					break;
+				} catch(Exception e) {
+					e.printStackTrace();
+					if(j != null) j.close();
+					j = null;
+					try {
+						Thread.sleep(1000);
+					} catch (InterruptedException ie) {
+						break;
+					}
+				}
+			}
+			// last attempt for whatever was queued before closing
+			outbound.drainTo(batch);
+			if(!batch.isEmpty()) {
+				try {
+					if(j == null) j = connect();
+					publish(j, batch);
+				} catch(Exception e) {
+					e.printStackTrace();
+				}
 			}
-			return true;
+			if(j != null) j.close();
+		}
+		
+		private void publish(Jedis j, List<byte[][]> batch) {
+			Pipeline p = j.pipelined();
+			for(byte[][] m : batch) p.publish(m[0], m[1]);
+			p.sync();
 		}
 
 		@Override
 		public void addListener(String channel, Consumer<byte[]> listener) {
 			if(!channels.contains(channel)) throw new IllegalArgumentException("Channel not registered");
-			if(!super.listeners.containsKey(channel)) super.listeners.put(channel, new ArrayList<>());
-			List<Consumer<byte[]>> l = super.listeners.get(channel);
-			l.add(listener);
-			super.listeners.put(channel, l);
+			super.listeners.computeIfAbsent(channel, c -> new CopyOnWriteArrayList<>()).add(listener);
 		}
 
 		@Override
 		public void close() throws IOException {
-			pool.close();
+			closed = true;
+			try {
+				if(subscriber.isSubscribed()) subscriber.unsubscribe();
+			} catch(Exception e) {
+				e.printStackTrace();
+			}
+			if(subscriberThread != null) subscriberThread.interrupt();
+			publisherThread.interrupt();
+			try {
+				publisherThread.join(5000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
 		}
 		
 	}
 
-
 }
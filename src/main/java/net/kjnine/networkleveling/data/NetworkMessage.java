@@ -0,0 +1,319 @@
+package net.kjnine.networkleveling.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Decoded form of a NetworkLeveling, NLReturn or NLMetadata message.
+ * Instances are meant to be reused, call {@link #clear()} before filling one again.
+ */
+public class NetworkMessage {
+	
+	public static enum SubChannel {
+		GET_LEVEL(1, "GetLevel"),
+		SET_LEVEL(2, "SetLevel"),
+		ADD_EXPERIENCE(3, "AddExperience"),
+		GET_EXPERIENCE(4, "GetExperience"),
+		GET_LEVELS(5, "GetLevels"),
+		GET_EXPERIENCES(6, "GetExperiences"),
+		GET_TOP(7, "GetTop"),
+		GET_RANK(8, "GetRank");
+		
+		private static final SubChannel[] BY_ID = new SubChannel[256];
+		static {
+			for(SubChannel s : values()) BY_ID[s.id] = s;
+		}
+		
+		private int id;
+		private String name;
+		SubChannel(int id, String name) {
+			this.id = id;
+			this.name = name;
+		}
+		
+		public int getId() {
+			return id;
+		}
+		
+		public String getName() {
+			return name;
+		}
+		
+		public static SubChannel byId(int id) {
+			return id >= 0 && id < BY_ID.length ? BY_ID[id] : null;
+		}
+		
+		public static SubChannel byName(String name) {
+			for(SubChannel s : values()) 
+				if(s.name.equals(name)) return s;
+			return null;
+		}
+	}
+	
+	private SubChannel subChannel;
+	private boolean hasUuid;
+	private long uuidMost, uuidLeast;
+	private String serverSource;
+	private String serverTarget;
+	private String reason;
+	private boolean hasLevel;
+	private int level;
+	private boolean hasExperience;
+	private long experience;
+	private boolean hasCorrelationId;
+	private long correlationId;
+	// most and least significant bits of every UUID, in pairs
+	private long[] uuids = new long[0];
+	private int uuidCount;
+	private int[] levels = new int[0];
+	private int levelCount;
+	private long[] experiences = new long[0];
+	private int experienceCount;
+	private int offset;
+	private int limit;
+	private boolean hasRank;
+	private int rank;
+	
+	public NetworkMessage clear() {
+		subChannel = null;
+		hasUuid = false;
+		uuidMost = uuidLeast = 0;
+		serverSource = serverTarget = reason = null;
+		hasLevel = hasExperience = false;
+		level = 0;
+		experience = 0;
+		hasCorrelationId = false;
+		correlationId = 0;
+		uuidCount = levelCount = experienceCount = 0;
+		offset = limit = 0;
+		hasRank = false;
+		rank = 0;
+		return this;
+	}
+	
+	public SubChannel getSubChannel() {
+		return subChannel;
+	}
+	
+	public NetworkMessage setSubChannel(SubChannel subChannel) {
+		this.subChannel = subChannel;
+		return this;
+	}
+	
+	public boolean hasUniqueId() {
+		return hasUuid;
+	}
+	
+	/**
+	 * @return the UUID, or null if the message has none
+	 */
+	public UUID getUniqueId() {
+		return hasUuid ? new UUID(uuidMost, uuidLeast) : null;
+	}
+	
+	long getUniqueIdMost() {
+		return uuidMost;
+	}
+	
+	long getUniqueIdLeast() {
+		return uuidLeast;
+	}
+	
+	public NetworkMessage setUniqueId(UUID uuid) {
+		return setUniqueId(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+	}
+	
+	NetworkMessage setUniqueId(long most, long least) {
+		this.hasUuid = true;
+		this.uuidMost = most;
+		this.uuidLeast = least;
+		return this;
+	}
+	
+	public String getServerSource() {
+		return serverSource;
+	}
+	
+	public NetworkMessage setServerSource(String serverSource) {
+		this.serverSource = serverSource;
+		return this;
+	}
+	
+	public String getServerTarget() {
+		return serverTarget;
+	}
+	
+	public NetworkMessage setServerTarget(String serverTarget) {
+		this.serverTarget = serverTarget;
+		return this;
+	}
+	
+	/**
+	 * @return the reason shown with a level or experience change, or null if the message has none
+	 */
+	public String getReason() {
+		return reason;
+	}
+	
+	public NetworkMessage setReason(String reason) {
+		this.reason = reason;
+		return this;
+	}
+	
+	public boolean hasLevel() {
+		return hasLevel;
+	}
+	
+	public int getLevel() {
+		return level;
+	}
+	
+	public NetworkMessage setLevel(int level) {
+		this.hasLevel = true;
+		this.level = level;
+		return this;
+	}
+	
+	public boolean hasExperience() {
+		return hasExperience;
+	}
+	
+	public long getExperience() {
+		return experience;
+	}
+	
+	public NetworkMessage setExperience(long experience) {
+		this.hasExperience = true;
+		this.experience = experience;
+		return this;
+	}
+	
+	public boolean hasCorrelationId() {
+		return hasCorrelationId;
+	}
+	
+	/**
+	 * @return the id the sender gave the request, copied to the reply so it can be matched
+	 */
+	public long getCorrelationId() {
+		return correlationId;
+	}
+	
+	public NetworkMessage setCorrelationId(long correlationId) {
+		this.hasCorrelationId = true;
+		this.correlationId = correlationId;
+		return this;
+	}
+	
+	public int getUniqueIdCount() {
+		return uuidCount;
+	}
+	
+	public UUID getUniqueIdAt(int i) {
+		if(i < 0 || i >= uuidCount) throw new IndexOutOfBoundsException(String.valueOf(i));
+		return new UUID(uuids[i*2], uuids[i*2 + 1]);
+	}
+	
+	/**
+	 * @return a copy of the UUID list
+	 */
+	public List<UUID> getUniqueIds() {
+		List<UUID> l = new ArrayList<>(uuidCount);
+		for(int i = 0; i < uuidCount; i++) l.add(new UUID(uuids[i*2], uuids[i*2 + 1]));
+		return l;
+	}
+	
+	public NetworkMessage addUniqueId(UUID uuid) {
+		return addUniqueId(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+	}
+	
+	NetworkMessage addUniqueId(long most, long least) {
+		if(uuidCount*2 + 2 > uuids.length) uuids = Arrays.copyOf(uuids, Math.max(16, uuids.length * 2));
+		uuids[uuidCount*2] = most;
+		uuids[uuidCount*2 + 1] = least;
+		uuidCount++;
+		return this;
+	}
+	
+	long getUniqueIdMostAt(int i) {
+		return uuids[i*2];
+	}
+	
+	long getUniqueIdLeastAt(int i) {
+		return uuids[i*2 + 1];
+	}
+	
+	public int getLevelCount() {
+		return levelCount;
+	}
+	
+	public int getLevelAt(int i) {
+		if(i < 0 || i >= levelCount) throw new IndexOutOfBoundsException(String.valueOf(i));
+		return levels[i];
+	}
+	
+	public NetworkMessage addLevel(int level) {
+		if(levelCount == levels.length) levels = Arrays.copyOf(levels, Math.max(16, levels.length * 2));
+		levels[levelCount++] = level;
+		return this;
+	}
+	
+	public int getExperienceCount() {
+		return experienceCount;
+	}
+	
+	public long getExperienceAt(int i) {
+		if(i < 0 || i >= experienceCount) throw new IndexOutOfBoundsException(String.valueOf(i));
+		return experiences[i];
+	}
+	
+	public NetworkMessage addExperience(long experience) {
+		if(experienceCount == experiences.length) experiences = Arrays.copyOf(experiences, Math.max(16, experiences.length * 2));
+		experiences[experienceCount++] = experience;
+		return this;
+	}
+	
+	/**
+	 * @return how many entries a GetTop page skips
+	 */
+	public int getOffset() {
+		return offset;
+	}
+	
+	public NetworkMessage setOffset(int offset) {
+		this.offset = offset;
+		return this;
+	}
+	
+	/**
+	 * @return most entries a GetTop page holds, 0 if not set
+	 */
+	public int getLimit() {
+		return limit;
+	}
+	
+	public NetworkMessage setLimit(int limit) {
+		this.limit = limit;
+		return this;
+	}
+	
+	public boolean hasRank() {
+		return hasRank;
+	}
+	
+	/**
+	 * @return the 1-based leaderboard rank, or -1 if unranked
+	 */
+	public int getRank() {
+		return rank;
+	}
+	
+	public NetworkMessage setRank(int rank) {
+		this.hasRank = true;
+		this.rank = rank;
+		return this;
+	}
+	
+}
@@ -0,0 +1,126 @@
+package net.kjnine.networkleveling.data;
+
+import java.util.UUID;
+
+/**
+ * Cached level and experience of a single player.
+ * Changes are only written to the DataLoader when the profile cache flushes.
+ * Experience gains are tracked as a pending increment, so the flush can apply them 
+ * atomically on the database instead of overwriting the total.
+ */
+public class PlayerProfile {
+	
+	private final UUID uuid;
+	private int level;
+	private long experience;
+	private int storedLevel;
+	private long pendingExperience;
+	private boolean pendingSet;
+	private boolean evicted;
+	private long journaled;
+	
+	public PlayerProfile(UUID uuid, int level, long experience) {
+		this.uuid = uuid;
+		this.level = level;
+		this.experience = experience;
+		this.storedLevel = level;
+	}
+	
+	public UUID getUniqueId() {
+		return uuid;
+	}
+	
+	public synchronized int getLevel() {
+		return level;
+	}
+	
+	public synchronized long getExperience() {
+		return experience;
+	}
+	
+	/**
+	 * Sets the new level and total after an experience gain, the difference is added on the next flush.
+	 */
+	public synchronized void addExperience(int level, long experience) {
+		this.pendingExperience += experience - this.experience;
+		this.level = level;
+		this.experience = experience;
+	}
+	
+	/**
+	 * Overwrites the level and experience, they are written as they are on the next flush.
+	 */
+	public synchronized void set(int level, long experience) {
+		this.level = level;
+		this.experience = experience;
+		this.pendingExperience = 0;
+		this.pendingSet = true;
+	}
+	
+	public synchronized boolean isDirty() {
+		return pendingSet || pendingExperience != 0 || level != storedLevel;
+	}
+	
+	synchronized boolean isPendingSet() {
+		return pendingSet;
+	}
+	
+	synchronized long getPendingExperience() {
+		return pendingExperience;
+	}
+	
+	synchronized int getStoredLevel() {
+		return storedLevel;
+	}
+	
+	/**
+	 * Clears the pending changes before they are written.
+	 */
+	synchronized void clearPending() {
+		pendingExperience = 0;
+		pendingSet = false;
+	}
+	
+	/**
+	 * Puts back pending changes that failed to write.
+	 */
+	synchronized void restorePending(boolean set, long experience) {
+		if(set) pendingSet = true;
+		pendingExperience += experience;
+	}
+	
+	/**
+	 * Applies the total the database returned after an increment, keeping gains made since.
+	 */
+	synchronized void setStoredExperience(long stored, int storedLevel) {
+		this.experience = stored + pendingExperience;
+		if(storedLevel > level) level = storedLevel;
+	}
+	
+	synchronized void setStoredLevel(int storedLevel) {
+		this.storedLevel = storedLevel;
+	}
+	
+	/**
+	 * @return the journal sequence of the newest change, 0 if none was journaled
+	 */
+	synchronized long getJournaled() {
+		return journaled;
+	}
+	
+	synchronized void setJournaled(long sequence) {
+		if(sequence > journaled) journaled = sequence;
+	}
+	
+	/**
+	 * @return whether this profile was dropped from the cache and must not be changed anymore.
+	 */
+	synchronized boolean isEvicted() {
+		return evicted;
+	}
+	
+	synchronized void setEvicted() {
+		this.evicted = true;
+	}
+	
+}
@@ -0,0 +1,32 @@
+package net.kjnine.networkleveling.data;
+
+import java.util.UUID;
+
+/**
+ * Stored level and experience of a single player, as read from or written to a DataLoader.
+ */
+public final class PlayerRecord {
+	
+	private final UUID uuid;
+	private final int level;
+	private final long experience;
+	
+	public PlayerRecord(UUID uuid, int level, long experience) {
+		this.uuid = uuid;
+		this.level = level;
+		this.experience = experience;
+	}
+	
+	public UUID getUniqueId() {
+		return uuid;
+	}
+	
+	public int getLevel() {
+		return level;
+	}
+	
+	public long getExperience() {
+		return experience;
+	}
+	
+}
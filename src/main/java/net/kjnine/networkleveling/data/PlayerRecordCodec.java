@@ -0,0 +1,71 @@
+package net.kjnine.networkleveling.data;
+
+import java.util.UUID;
+
+import org.bson.BsonReader;
+import org.bson.BsonType;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+
+/**
+ * Reads and writes player documents straight from and to BSON, without building a Document first.
+ * Fields other than uuid, level and experience are skipped, missing ones read as level 1 and no experience.
+ */
+public class PlayerRecordCodec implements Codec<PlayerRecord> {
+
+	@Override
+	public void encode(BsonWriter writer, PlayerRecord value, EncoderContext encoderContext) {
+		writer.writeStartDocument();
+		if(value.getUniqueId() != null) writer.writeString("uuid", value.getUniqueId().toString());
+		writer.writeInt32("level", value.getLevel());
+		writer.writeInt64("experience", value.getExperience());
+		writer.writeEndDocument();
+	}
+
+	@Override
+	public Class<PlayerRecord> getEncoderClass() {
+		return PlayerRecord.class;
+	}
+
+	@Override
+	public PlayerRecord decode(BsonReader reader, DecoderContext decoderContext) {
+		UUID uuid = null;
+		int level = 1;
+		long experience = 0;
+		reader.readStartDocument();
+		while(reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+			String name = reader.readName();
+			if(name.equals("uuid") && reader.getCurrentBsonType() == BsonType.STRING) {
+				uuid = UUID.fromString(reader.readString());
+			} else if(name.equals("level")) {
+				level = (int) readNumber(reader);
+			} else if(name.equals("experience")) {
+				experience = readNumber(reader);
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.readEndDocument();
+		return new PlayerRecord(uuid, level, experience);
+	}
+	
+	/**
+	 * Older documents may hold the numbers as any numeric type.
+	 */
+	private static long readNumber(BsonReader reader) {
+		switch(reader.getCurrentBsonType()) {
+		case INT32:
+			return reader.readInt32();
+		case INT64:
+			return reader.readInt64();
+		case DOUBLE:
+			return (long) reader.readDouble();
+		default:
+			reader.skipValue();
+			return 0;
+		}
+	}
+
+}
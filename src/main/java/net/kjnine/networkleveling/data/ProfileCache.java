@@ -0,0 +1,605 @@
+package net.kjnine.networkleveling.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import net.kjnine.networkleveling.Cluster;
+import net.kjnine.networkleveling.NetworkLevel;
+import net.kjnine.networkleveling.NetworkLevelingPlugin;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.scheduler.ScheduledTask;
+
+/**
+ * Write-behind cache of player levels and experience in front of the DataLoader.
+ * Profiles are loaded on first use, changed in memory, and written in batches
+ * every flush interval, when the player disconnects, and when the plugin disables.
+ * All storage access runs on the DataLoader's I/O executor.
+ * Every change is also appended to the journal, and marked as stored there once a flush has written it.
+ * Changes to players that can't be loaded while the storage is down are kept as unloaded
+ * changes, written with the next flush or merged into the profile once it loads.
+ * With a shared cache, misses read it before the DataLoader, and written players are invalidated in it.
+ * In cluster mode only the owner of a player caches it, other proxies peek at it without caching.
+ */
+public class ProfileCache {
+	
+	private NetworkLevelingPlugin pl;
+	private Map<UUID, CompletableFuture<PlayerProfile>> profiles = new ConcurrentHashMap<>();
+	// guarded by itself, also held while a loaded profile takes its unloaded changes and while a flush takes its snapshot
+	private Map<UUID, Unloaded> unloaded = new HashMap<>();
+	// flushes run one at a time, so a flush can't truncate changes another one is still writing
+	private final Object flushLock = new Object();
+	private ScheduledTask flushTask;
+	
+	/**
+	 * Changes to a player whose profile isn't loaded.
+	 */
+	private static class Unloaded {
+		
+		boolean set;
+		int level;
+		long experience;
+		long gain;
+		// journal sequence of the newest change
+		long journaled;
+		
+		void apply(byte type, int level, long value) {
+			if(type == Journal.SET) {
+				set = true;
+				this.level = level;
+				experience = value;
+				gain = 0;
+			} else {
+				if(set) experience = Math.max(0, experience + value);
+				else gain += value;
+				this.level = Math.max(this.level, level);
+			}
+		}
+		
+		/**
+		 * Applies the changes to a profile loaded from storage.
+		 */
+		void applyTo(PlayerProfile p) {
+			if(set) {
+				p.set(Math.max(1, level), experience);
+			} else {
+				long total = Math.max(0, p.getExperience() + gain);
+				p.addExperience(Math.max(p.getLevel(), Math.max(level, NetworkLevel.levelForExperience(total))), total);
+			}
+			p.setJournaled(journaled);
+		}
+		
+	}
+	
+	public ProfileCache(NetworkLevelingPlugin pl) {
+		this.pl = pl;
+	}
+	
+	/**
+	 * Starts the periodic flush.
+	 * @param interval seconds between flushes
+	 */
+	public void start(long interval) {
+		if(flushTask != null) flushTask.cancel();
+		flushTask = pl.getProxy().getScheduler().schedule(pl, this::flush, interval, interval, TimeUnit.SECONDS);
+	}
+	
+	/**
+	 * Gets the profile of the player, loading it from the DataLoader if it isn't cached.
+	 */
+	public CompletableFuture<PlayerProfile> get(UUID uuid) {
+		CompletableFuture<PlayerProfile> f = profiles.get(uuid);
+		if(f != null) return f;
+		CompletableFuture<PlayerProfile> loading = new CompletableFuture<>();
+		f = profiles.putIfAbsent(uuid, loading);
+		if(f != null) return f;
+		load(Collections.singletonList(uuid)).whenComplete((records, ex) -> {
+			if(ex != null || records == null) {
+				profiles.remove(uuid, loading);
+				loading.completeExceptionally(ex != null ? ex : new IllegalStateException("Query failed"));
+			} else {
+				complete(loading, parse(uuid, records.get(uuid)));
+			}
+		});
+		return loading;
+	}
+	
+	/**
+	 * Gets the profiles of all players, cached ones from memory and the rest with one bulk DataLoader query.
+	 * @return the profiles by UUID, in the order of the given UUIDs
+	 */
+	public CompletableFuture<Map<UUID, PlayerProfile>> getAll(Collection<UUID> uuids) {
+		Map<UUID, CompletableFuture<PlayerProfile>> futures = new LinkedHashMap<>();
+		Map<UUID, CompletableFuture<PlayerProfile>> loading = new HashMap<>();
+		for(UUID uuid : uuids) {
+			CompletableFuture<PlayerProfile> f = profiles.get(uuid);
+			if(f == null) {
+				CompletableFuture<PlayerProfile> l = new CompletableFuture<>();
+				f = profiles.putIfAbsent(uuid, l);
+				if(f == null) {
+					f = l;
+					loading.put(uuid, l);
+				}
+			}
+			futures.put(uuid, f);
+		}
+		if(!loading.isEmpty()) {
+			load(new ArrayList<>(loading.keySet())).whenComplete((records, ex) -> {
+				for(Map.Entry<UUID, CompletableFuture<PlayerProfile>> e : loading.entrySet()) {
+					if(ex != null || records == null) {
+						profiles.remove(e.getKey(), e.getValue());
+						e.getValue().completeExceptionally(ex != null ? ex : new IllegalStateException("Bulk query failed"));
+					} else {
+						complete(e.getValue(), parse(e.getKey(), records.get(e.getKey())));
+					}
+				}
+			});
+		}
+		return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+			Map<UUID, PlayerProfile> out = new LinkedHashMap<>();
+			for(Map.Entry<UUID, CompletableFuture<PlayerProfile>> e : futures.entrySet()) out.put(e.getKey(), e.getValue().join());
+			return out;
+		});
+	}
+	
+	/**
+	 * Gets the profiles of all players without caching the ones that aren't, for players this proxy doesn't own.
+	 * Uncached profiles are read from storage with one bulk query, and must not be changed.
+	 * @return the profiles by UUID, in the order of the given UUIDs
+	 */
+	public CompletableFuture<Map<UUID, PlayerProfile>> peekAll(Collection<UUID> uuids) {
+		Map<UUID, PlayerProfile> found = new LinkedHashMap<>();
+		List<UUID> missing = new ArrayList<>();
+		for(UUID uuid : uuids) {
+			CompletableFuture<PlayerProfile> f = profiles.get(uuid);
+			PlayerProfile p = f == null ? null : f.getNow(null);
+			found.put(uuid, p);
+			if(p == null) missing.add(uuid);
+		}
+		if(missing.isEmpty()) return CompletableFuture.completedFuture(found);
+		return load(missing).thenApply(records -> {
+			if(records == null) throw new IllegalStateException("Query failed");
+			for(UUID uuid : missing) {
+				PlayerProfile p = parse(uuid, records.get(uuid));
+				synchronized(unloaded) {
+					Unloaded u = unloaded.get(uuid);
+					if(u != null) u.applyTo(p);
+				}
+				found.put(uuid, p);
+			}
+			return found;
+		});
+	}
+	
+	/**
+	 * Reads the records through the shared cache if there is one, the DataLoader only gets its misses.
+	 * In cluster mode, waits until the proxies released the players they no longer own.
+	 * @return the records by UUID, missing for new players, or null if the DataLoader query failed
+	 */
+	private CompletableFuture<Map<UUID, PlayerRecord>> load(List<UUID> uuids) {
+		Cluster cluster = pl.getCluster();
+		if(cluster != null && !cluster.getHandoff().isDone()) return cluster.getHandoff().thenCompose(v -> load(uuids));
+		DataLoader dl = pl.getDataLoader();
+		SharedCache shared = pl.getSharedCache();
+		if(shared == null) return dl.getRecordsAsync(uuids);
+		return dl.supplyAsync(() -> {
+			Map<UUID, String> versions = new HashMap<>();
+			Map<UUID, PlayerRecord> records = shared.get(uuids, versions);
+			if(records == null) return dl.getRecords(uuids);
+			if(versions.isEmpty()) return records;
+			Map<UUID, PlayerRecord> stored = dl.getRecords(versions.keySet());
+			if(stored == null) return null;
+			Map<UUID, PlayerRecord> fills = new HashMap<>();
+			for(UUID uuid : versions.keySet()) {
+				PlayerRecord r = stored.get(uuid);
+				fills.put(uuid, r == null ? new PlayerRecord(uuid, 1, 0) : r);
+			}
+			shared.fill(fills, versions);
+			records.putAll(stored);
+			return records;
+		});
+	}
+	
+	/**
+	 * Drops the cached profile if it has nothing left to write, so the next use loads it again.
+	 * Called when another proxy wrote the player.
+	 */
+	public void invalidate(UUID uuid) {
+		profiles.computeIfPresent(uuid, (u, cached) -> evict(cached));
+	}
+	
+	/**
+	 * Runs the action while holding the lock of the cached profile, so the profile
+	 * can't be flushed or dropped from the cache halfway through a change.
+	 */
+	public <T> CompletableFuture<T> modify(UUID uuid, Function<PlayerProfile, T> action) {
+		return get(uuid).thenCompose(p -> {
+			synchronized(p) {
+				if(!p.isEvicted()) return CompletableFuture.completedFuture(action.apply(p));
+			}
+			return modify(uuid, action);
+		});
+	}
+	
+	/**
+	 * @param record the stored record, or null for a new player
+	 */
+	private PlayerProfile parse(UUID uuid, PlayerRecord record) {
+		long exp = record == null ? 0 : Math.max(0, record.getExperience());
+		int level = record == null ? 1 : Math.max(1, record.getLevel());
+		return new PlayerProfile(uuid, level, exp);
+	}
+	
+	/**
+	 * Applies the player's unloaded changes to the freshly loaded profile and completes its future.
+	 * Both happen while holding the unloaded lock, so a flush sees the changes either as unloaded or in the profile.
+	 */
+	private void complete(CompletableFuture<PlayerProfile> loading, PlayerProfile p) {
+		synchronized(unloaded) {
+			Unloaded u = unloaded.remove(p.getUniqueId());
+			if(u != null) {
+				u.applyTo(p);
+				pl.getLeaderboard().update(p.getUniqueId(), p.getExperience());
+			}
+			loading.complete(p);
+		}
+	}
+	
+	/**
+	 * Journals a change made to the profile, must be called while holding its lock, right after the change.
+	 * @param type {@link Journal#SET} with the new level and experience, or {@link Journal#EXPERIENCE} with the gain
+	 * @return completes once the change is journaled
+	 */
+	public CompletableFuture<Void> journal(PlayerProfile p, byte type, int level, long value) {
+		Journal.Ack ack = pl.getJournal().append(type, p.getUniqueId(), level, value);
+		p.setJournaled(ack.getSequence());
+		return ack;
+	}
+	
+	/**
+	 * Journals a change to a player whose profile couldn't be loaded, it is written with the next flush.
+	 * @param type {@link Journal#SET} with the new level and experience, or {@link Journal#EXPERIENCE} with the gain
+	 * @return completes once the change is journaled
+	 */
+	public CompletableFuture<Void> modifyUnloaded(UUID uuid, byte type, int level, long value) {
+		synchronized(unloaded) {
+			Unloaded u = unloaded.computeIfAbsent(uuid, id -> new Unloaded());
+			u.apply(type, level, value);
+			Journal.Ack ack = pl.getJournal().append(type, uuid, level, value);
+			u.journaled = Math.max(u.journaled, ack.getSequence());
+			return ack;
+		}
+	}
+	
+	/**
+	 * Puts the changes of the journal left by the last run that weren't stored back in place as unloaded changes,
+	 * so the next flush writes them. Must be called before anything else is journaled.
+	 * @return how many changes were replayed
+	 */
+	public int recover() {
+		List<Journal.Entry> entries = pl.getJournal().replay();
+		synchronized(unloaded) {
+			for(Journal.Entry e : entries) {
+				Unloaded u = unloaded.computeIfAbsent(e.getUniqueId(), id -> new Unloaded());
+				u.apply(e.getType(), e.getLevel(), e.getValue());
+				u.journaled = Math.max(u.journaled, e.getSequence());
+			}
+		}
+		return entries.size();
+	}
+	
+	/**
+	 * Writes every change in one I/O task, then drops clean profiles of players that are no longer online,
+	 * and in cluster mode of players owned by another proxy.
+	 */
+	public CompletableFuture<Void> flush() {
+		Cluster cluster = pl.getCluster();
+		return release(u -> !isOnline(u) || (cluster != null && !cluster.isOwner(u)));
+	}
+	
+	/**
+	 * Writes every change in one I/O task, then drops the clean profiles of the players matching the filter.
+	 */
+	public CompletableFuture<Void> release(Predicate<UUID> filter) {
+		return pl.getDataLoader().supplyAsync(() -> {
+			for(PlayerProfile p : flushAll()) {
+				if(filter.test(p.getUniqueId())) profiles.computeIfPresent(p.getUniqueId(), (u, cached) -> evict(cached));
+			}
+			return null;
+		});
+	}
+	
+	/**
+	 * Blocking. Seals the journal, writes the unloaded changes and every loaded profile,
+	 * and truncates the sealed journal files whose changes are all stored.
+	 * Whatever failed to write stays in the journal.
+	 * @return the profiles that were written
+	 */
+	private List<PlayerProfile> flushAll() {
+		synchronized(flushLock) {
+			Journal journal = pl.getJournal();
+			journal.seal();
+			Map<UUID, Unloaded> changes;
+			List<PlayerProfile> loaded;
+			synchronized(unloaded) {
+				changes = new HashMap<>(unloaded);
+				unloaded.clear();
+				loaded = loaded();
+			}
+			writeUnloaded(changes);
+			List<UUID> written = write(loaded);
+			written.addAll(changes.keySet());
+			invalidateShared(written);
+			publishTotals(written);
+			journal.truncate();
+			return loaded;
+		}
+	}
+	
+	/**
+	 * Writes the profile if it changed, and drops it from the cache once it is clean.
+	 * Called when the player disconnects.
+	 */
+	public CompletableFuture<Void> flush(UUID uuid) {
+		CompletableFuture<PlayerProfile> f = profiles.get(uuid);
+		if(f == null) return CompletableFuture.completedFuture(null);
+		return f.thenCompose(p -> pl.getDataLoader().supplyAsync(() -> {
+			synchronized(flushLock) {
+				List<UUID> written = write(Collections.singletonList(p));
+				invalidateShared(written);
+				publishTotals(written);
+			}
+			profiles.computeIfPresent(uuid, (u, cached) -> evict(cached));
+			return null;
+		}));
+	}
+	
+	private List<PlayerProfile> loaded() {
+		List<PlayerProfile> loaded = new ArrayList<>(profiles.size());
+		for(CompletableFuture<PlayerProfile> f : profiles.values()) {
+			PlayerProfile p = f.getNow(null);
+			if(p != null) loaded.add(p);
+		}
+		return loaded;
+	}
+	
+	/**
+	 * @return the cached future if its profile still has changes to write, otherwise null
+	 */
+	private CompletableFuture<PlayerProfile> evict(CompletableFuture<PlayerProfile> f) {
+		PlayerProfile p = f.getNow(null);
+		if(p == null) return f;
+		synchronized(p) {
+			if(p.isDirty()) return f;
+			p.setEvicted();
+			return null;
+		}
+	}
+	
+	private void invalidateShared(List<UUID> written) {
+		SharedCache shared = pl.getSharedCache();
+		if(shared != null) shared.invalidate(written);
+	}
+	
+	private void publishTotals(List<UUID> written) {
+		Cluster cluster = pl.getCluster();
+		if(cluster != null && !written.isEmpty()) cluster.publishTotals(written);
+	}
+	
+	/**
+	 * Blocking, writes the unloaded changes the same way as profiles. 
+	 * Levels of gains are recalculated from the totals the database returns.
+	 * Failed changes are put back, and the written ones are marked as stored in the journal.
+	 */
+	private void writeUnloaded(Map<UUID, Unloaded> changes) {
+		if(changes.isEmpty()) return;
+		DataLoader dl = pl.getDataLoader();
+		Journal journal = pl.getJournal();
+		List<PlayerRecord> sets = new ArrayList<>();
+		List<UUID> gainIds = new ArrayList<>();
+		List<Unloaded> gains = new ArrayList<>();
+		for(Map.Entry<UUID, Unloaded> e : changes.entrySet()) {
+			Unloaded u = e.getValue();
+			if(u.set) {
+				sets.add(new PlayerRecord(e.getKey(), Math.max(1, u.level), u.experience));
+			} else {
+				gainIds.add(e.getKey());
+				gains.add(u);
+			}
+		}
+		if(!sets.isEmpty()) {
+			boolean[] saved = dl.setRecords(sets);
+			for(int i = 0; i < saved.length; i++) {
+				PlayerRecord r = sets.get(i);
+				Unloaded u = changes.get(r.getUniqueId());
+				if(saved[i]) {
+					pl.getLeaderboard().update(r.getUniqueId(), r.getExperience());
+					journal.stored(r.getUniqueId(), u.journaled);
+				} else {
+					restoreUnloaded(r.getUniqueId(), u);
+				}
+			}
+		}
+		if(gains.isEmpty()) return;
+		long[] deltas = new long[gains.size()];
+		for(int i = 0; i < deltas.length; i++) deltas[i] = gains.get(i).gain;
+		long[] totals = dl.incrementExperience(gainIds, deltas);
+		List<UUID> levelIds = new ArrayList<>();
+		int[] levels = new int[totals.length];
+		for(int i = 0; i < totals.length; i++) {
+			Unloaded u = gains.get(i);
+			if(totals[i] < 0) {
+				restoreUnloaded(gainIds.get(i), u);
+				continue;
+			}
+			pl.getLeaderboard().update(gainIds.get(i), totals[i]);
+			// the gain is stored, only its level is left to write
+			u.gain = 0;
+			u.level = Math.max(Math.max(1, u.level), NetworkLevel.levelForExperience(totals[i]));
+			levels[levelIds.size()] = u.level;
+			levelIds.add(gainIds.get(i));
+		}
+		if(levelIds.isEmpty()) return;
+		boolean[] saved = dl.setLevels(levelIds, Arrays.copyOf(levels, levelIds.size()));
+		for(int i = 0; i < saved.length; i++) {
+			UUID uuid = levelIds.get(i);
+			Unloaded u = changes.get(uuid);
+			if(saved[i]) {
+				journal.stored(uuid, u.journaled);
+				continue;
+			}
+			synchronized(unloaded) {
+				// the gain must not be replayed again, the level is journaled on its own in its place
+				long gained = u.journaled;
+				Unloaded since = unloaded.get(uuid);
+				if(since == null || !since.set) u.journaled = journal.append(Journal.EXPERIENCE, uuid, u.level, 0).getSequence();
+				journal.stored(uuid, gained);
+				restoreUnloaded(uuid, u);
+			}
+		}
+	}
+	
+	/**
+	 * Puts back unloaded changes that failed to write, under any made since.
+	 * They are still in the journal, as they weren't marked as stored.
+	 */
+	private void restoreUnloaded(UUID uuid, Unloaded failed) {
+		synchronized(unloaded) {
+			Unloaded since = unloaded.get(uuid);
+			// a set made since overwrites the failed changes
+			if(since != null && since.set) return;
+			if(since != null) {
+				failed.apply(Journal.EXPERIENCE, since.level, since.gain);
+				failed.journaled = Math.max(failed.journaled, since.journaled);
+			}
+			unloaded.put(uuid, failed);
+		}
+	}
+	
+	/**
+	 * Blocking, must only be called from the I/O executor or on shutdown.
+	 * Set levels are written as they are, experience gains are added with atomic increments 
+	 * and the level is recalculated from the totals the database returns.
+	 * Every kind of write is sent as one batch for all profiles.
+	 * Changes that fail to write stay pending, and the players whose changes were all written
+	 * are marked as stored in the journal up to the newest change the write included.
+	 * @return the players that had changes to write
+	 */
+	private List<UUID> write(List<PlayerProfile> loaded) {
+		List<UUID> written = new ArrayList<>();
+		Journal journal = pl.getJournal();
+		Map<UUID, Long> journaled = new HashMap<>();
+		List<PlayerProfile> sets = new ArrayList<>(), increments = new ArrayList<>(), levels = new ArrayList<>();
+		List<PlayerRecord> setRecords = new ArrayList<>();
+		List<UUID> incrementIds = new ArrayList<>();
+		long[] deltas = new long[loaded.size()];
+		for(PlayerProfile p : loaded) {
+			int level;
+			long exp, delta;
+			boolean set;
+			synchronized(p) {
+				if(!p.isDirty()) continue;
+				level = p.getLevel();
+				exp = p.getExperience();
+				delta = p.getPendingExperience();
+				set = p.isPendingSet();
+				journaled.put(p.getUniqueId(), p.getJournaled());
+				p.clearPending();
+			}
+			written.add(p.getUniqueId());
+			if(set) {
+				sets.add(p);
+				setRecords.add(new PlayerRecord(p.getUniqueId(), level, exp));
+			} else if(delta != 0) {
+				deltas[increments.size()] = delta;
+				increments.add(p);
+				incrementIds.add(p.getUniqueId());
+			} else {
+				levels.add(p);
+			}
+		}
+		DataLoader dl = pl.getDataLoader();
+		if(!sets.isEmpty()) {
+			boolean[] saved = dl.setRecords(setRecords);
+			for(int i = 0; i < saved.length; i++) {
+				PlayerProfile p = sets.get(i);
+				if(saved[i]) {
+					p.setStoredLevel(setRecords.get(i).getLevel());
+					journal.stored(p.getUniqueId(), journaled.get(p.getUniqueId()));
+				} else {
+					p.restorePending(true, 0);
+				}
+			}
+		}
+		if(!increments.isEmpty()) {
+			long[] totals = dl.incrementExperience(incrementIds, Arrays.copyOf(deltas, increments.size()));
+			for(int i = 0; i < totals.length; i++) {
+				PlayerProfile p = increments.get(i);
+				if(totals[i] < 0) {
+					p.restorePending(false, deltas[i]);
+					continue;
+				}
+				p.setStoredExperience(totals[i], NetworkLevel.levelForExperience(totals[i]));
+				// the total includes gains other proxies wrote
+				pl.getLeaderboard().update(p.getUniqueId(), p.getExperience());
+				levels.add(p);
+			}
+		}
+		// levels changed by gains, written once their increments are stored
+		List<PlayerProfile> changed = new ArrayList<>();
+		List<UUID> levelIds = new ArrayList<>();
+		int[] changedLevels = new int[levels.size()];
+		for(PlayerProfile p : levels) {
+			int level = p.getLevel();
+			if(level == p.getStoredLevel()) {
+				journal.stored(p.getUniqueId(), journaled.get(p.getUniqueId()));
+				continue;
+			}
+			changedLevels[changed.size()] = level;
+			changed.add(p);
+			levelIds.add(p.getUniqueId());
+		}
+		if(changed.isEmpty()) return written;
+		boolean[] saved = dl.setLevels(levelIds, Arrays.copyOf(changedLevels, changed.size()));
+		for(int i = 0; i < saved.length; i++) {
+			PlayerProfile p = changed.get(i);
+			if(saved[i]) {
+				p.setStoredLevel(changedLevels[i]);
+			} else {
+				synchronized(p) {
+					// the gain must not be replayed again, the level is journaled on its own in its place
+					if(!p.isPendingSet()) journal(p, Journal.EXPERIENCE, changedLevels[i], 0);
+				}
+			}
+			journal.stored(p.getUniqueId(), journaled.get(p.getUniqueId()));
+		}
+		return written;
+	}
+	
+	private boolean isOnline(UUID uuid) {
+		ProxiedPlayer pp = pl.getProxy().getPlayer(uuid);
+		return pp != null && pp.isConnected();
+	}
+	
+	/**
+	 * Stops the periodic flush and writes everything still pending on the calling thread.
+	 * Whatever fails to write stays in the journal for the next start.
+	 */
+	public void close() {
+		if(flushTask != null) flushTask.cancel();
+		flushAll();
+		profiles.clear();
+	}
+	
+}
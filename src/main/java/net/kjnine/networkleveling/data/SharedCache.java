@@ -0,0 +1,218 @@
+package net.kjnine.networkleveling.data;
+
+import java.io.Closeable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+import redis.clients.jedis.BinaryJedisPubSub;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.Pipeline;
+import redis.clients.jedis.Response;
+
+/**
+ * Second level cache of player records in Redis hashes, shared by every proxy in front of the DataLoader.
+ * A profile cache miss reads it first, and fills it from the DataLoader on a shared miss.
+ * Writers invalidate the hashes of what they stored and announce it on a dedicated channel,
+ * so other proxies drop their clean copies.
+ * Every hash carries a version that each invalidation bumps. A fill only goes through if the
+ * version is still the one read before the DataLoader was, so a slow reader can't put back data older than a write.
+ */
+public class SharedCache implements Closeable {
+
+	public static final String CHANNEL = "NLInvalidate";
+
+	private static final String PREFIX = "networkleveling:profile:";
+	// KEYS[1] hash, ARGV version read before the database, level, experience, ttl
+	private static final String FILL =
+			"if (redis.call('HGET', KEYS[1], 'v') or '0') ~= ARGV[1] then return 0 end "
+			+ "redis.call('HMSET', KEYS[1], 'l', ARGV[2], 'e', ARGV[3], 'v', ARGV[1]) "
+			+ "redis.call('EXPIRE', KEYS[1], ARGV[4]) "
+			+ "return 1";
+	// KEYS[1] hash, ARGV ttl
+	private static final String INVALIDATE =
+			"redis.call('HDEL', KEYS[1], 'l', 'e') "
+			+ "local v = redis.call('HINCRBY', KEYS[1], 'v', 1) "
+			+ "redis.call('EXPIRE', KEYS[1], ARGV[1]) "
+			+ "return v";
+
+	private final String address, pass;
+	private final int port;
+	private final String ttl;
+	// identifies this proxy's own invalidations, which it doesn't need to hear back
+	private final UUID origin = UUID.randomUUID();
+	private final Consumer<UUID> invalidated;
+	// guarded by this
+	private Jedis jedis;
+	private Subscriber subscriber = new Subscriber();
+	private Thread subscriberThread;
+	private volatile boolean closed;
+
+	/**
+	 * @param ttl seconds a hash is kept after its last fill or invalidation
+	 * @param invalidated called with every UUID another proxy invalidated, on the subscriber thread
+	 */
+	public SharedCache(String address, int port, String pass, int ttl, Consumer<UUID> invalidated) {
+		this.address = address;
+		this.port = port;
+		this.pass = pass;
+		this.ttl = Integer.toString(Math.max(1, ttl));
+		this.invalidated = invalidated;
+		subscriberThread = new Thread(this::runSubscriber, "NetworkLeveling Cache Invalidation");
+		subscriberThread.setDaemon(true);
+		subscriberThread.start();
+	}
+
+	private Jedis connect() {
+		Jedis j = new Jedis(address, port);
+		if(pass != null && !pass.isEmpty()) j.auth(pass);
+		return j;
+	}
+
+	private Jedis jedis() {
+		if(jedis == null) jedis = connect();
+		return jedis;
+	}
+
+	private void disconnect() {
+		if(jedis != null) jedis.close();
+		jedis = null;
+	}
+
+	/**
+	 * Blocking, reads every hash in one pipeline.
+	 * @param versions gets the version of every miss, to pass on to {@link #fill(Map, Map)}
+	 * @return the cached records, or null if Redis couldn't be reached
+	 */
+	public synchronized Map<UUID, PlayerRecord> get(List<UUID> uuids, Map<UUID, String> versions) {
+		try {
+			Pipeline p = jedis().pipelined();
+			List<Response<List<String>>> responses = new ArrayList<>(uuids.size());
+			for(UUID uuid : uuids) responses.add(p.hmget(PREFIX + uuid, "l", "e", "v"));
+			p.sync();
+			Map<UUID, PlayerRecord> records = new HashMap<>();
+			for(int i = 0; i < uuids.size(); i++) {
+				List<String> v = responses.get(i).get();
+				UUID uuid = uuids.get(i);
+				if(v.get(0) != null && v.get(1) != null) {
+					records.put(uuid, new PlayerRecord(uuid, Integer.parseInt(v.get(0)), Long.parseLong(v.get(1))));
+				} else {
+					versions.put(uuid, v.get(2) == null ? "0" : v.get(2));
+				}
+			}
+			return records;
+		} catch(Exception e) {
+			e.printStackTrace();
+			disconnect();
+			return null;
+		}
+	}
+
+	/**
+	 * Blocking, stores the records read from the DataLoader after a miss,
+	 * skipping every hash that was invalidated since its version was read.
+	 */
+	public synchronized void fill(Map<UUID, PlayerRecord> records, Map<UUID, String> versions) {
+		if(records.isEmpty()) return;
+		try {
+			Pipeline p = jedis().pipelined();
+			for(PlayerRecord r : records.values()) {
+				String version = versions.get(r.getUniqueId());
+				if(version == null) continue;
+				p.eval(FILL, Arrays.asList(PREFIX + r.getUniqueId()),
+						Arrays.asList(version, Integer.toString(r.getLevel()), Long.toString(r.getExperience()), ttl));
+			}
+			p.sync();
+		} catch(Exception e) {
+			e.printStackTrace();
+			disconnect();
+		}
+	}
+
+	/**
+	 * Blocking, drops the cached records and bumps their versions, then tells the other proxies.
+	 * Called after the records were written to the DataLoader.
+	 */
+	public synchronized void invalidate(Collection<UUID> uuids) {
+		if(uuids.isEmpty()) return;
+		ByteBuffer message = ByteBuffer.allocate(16 * (uuids.size() + 1));
+		message.putLong(origin.getMostSignificantBits()).putLong(origin.getLeastSignificantBits());
+		try {
+			Pipeline p = jedis().pipelined();
+			for(UUID uuid : uuids) {
+				p.eval(INVALIDATE, Arrays.asList(PREFIX + uuid), Arrays.asList(ttl));
+				message.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+			}
+			p.publish(CHANNEL.getBytes(StandardCharsets.UTF_8), message.array());
+			p.sync();
+		} catch(Exception e) {
+			// other proxies keep reading the old records until they expire
+			e.printStackTrace();
+			disconnect();
+		}
+	}
+
+	/**
+	 * Holds one dedicated connection subscribed to the invalidation channel, reconnecting if it drops.
+	 */
+	private void runSubscriber() {
+		while(!closed) {
+			Jedis j = null;
+			try {
+				j = connect();
+				// blocks until unsubscribed or disconnected
+				j.subscribe(subscriber, CHANNEL.getBytes(StandardCharsets.UTF_8));
+			} catch(Exception e) {
+				if(closed) break;
+				e.printStackTrace();
+				try {
+					Thread.sleep(1000);
+				} catch (InterruptedException ie) {
+					break;
+				}
+			} finally {
+				if(j != null) j.close();
+			}
+		}
+	}
+
+	private class Subscriber extends BinaryJedisPubSub {
+
+		@Override
+		public void onMessage(byte[] channel, byte[] message) {
+			if(message.length < 16 || message.length % 16 != 0) return;
+			ByteBuffer b = ByteBuffer.wrap(message);
+			if(origin.equals(new UUID(b.getLong(), b.getLong()))) return;
+			while(b.hasRemaining()) {
+				try {
+					invalidated.accept(new UUID(b.getLong(), b.getLong()));
+				} catch(RuntimeException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		try {
+			if(subscriber.isSubscribed()) subscriber.unsubscribe();
+		} catch(Exception e) {
+			e.printStackTrace();
+		}
+		subscriberThread.interrupt();
+		synchronized(this) {
+			disconnect();
+		}
+	}
+
+}
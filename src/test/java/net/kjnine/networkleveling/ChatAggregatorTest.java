@@ -0,0 +1,130 @@
+package net.kjnine.networkleveling;
+
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import net.kjnine.networkleveling.NetworkLevelManager.MessageType;
+import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.api.scheduler.TaskScheduler;
+
+public class ChatAggregatorTest {
+
+	private static final UUID PLAYER = UUID.fromString("5f0c8a3e-1b2d-4c6e-9f70-8a1b2c3d4e5f");
+
+	private NetworkLevelingPlugin pl;
+	private NetworkLevelManager levels;
+	private NotificationStore notifications;
+	private TaskScheduler scheduler;
+	private ProxiedPlayer player;
+	private ChatAggregator aggregator;
+
+	@Before
+	public void setUp() {
+		pl = mock(NetworkLevelingPlugin.class);
+		levels = mock(NetworkLevelManager.class);
+		notifications = mock(NotificationStore.class);
+		scheduler = mock(TaskScheduler.class);
+		ProxyServer proxy = mock(ProxyServer.class);
+		player = mock(ProxiedPlayer.class);
+		when(pl.getProxy()).thenReturn(proxy);
+		when(pl.getLevelManager()).thenReturn(levels);
+		when(pl.getNotificationStore()).thenReturn(notifications);
+		when(proxy.getScheduler()).thenReturn(scheduler);
+		when(proxy.getPlayer(PLAYER)).thenReturn(player);
+		when(player.getUniqueId()).thenReturn(PLAYER);
+		when(player.isConnected()).thenReturn(true);
+		aggregator = new ChatAggregator(pl);
+	}
+
+	@Test
+	public void withoutAWindowEveryGainIsSentRightAway() {
+		aggregator.start(0, 0);
+		aggregator.addExperience(player, 10, "Voting");
+		aggregator.addExperience(player, 5, "");
+		verify(levels).sendLevelingMessage(player, MessageType.ADDEXPERIENCE, 10L, "Voting");
+		verify(levels).sendLevelingMessage(player, MessageType.ADDEXPERIENCE, 5L, "");
+	}
+
+	@Test
+	public void flushBeforeALevelUpSendsTheHeldGainsOnce() {
+		aggregator.start(60000, 60000);
+		aggregator.addExperience(player, 10, "Voting");
+		aggregator.addExperience(player, 5, "Playing");
+		aggregator.addExperience(player, 3, "Voting");
+		verifyNoInteractions(levels);
+		// what the level manager does right before it sends a level-up
+		aggregator.flush(PLAYER);
+		verify(levels).sendLevelingMessage(player, MessageType.ADDEXPERIENCE, 18L, "Voting Playing");
+		aggregator.flush(PLAYER);
+		aggregator.close();
+		verify(levels, times(1)).sendLevelingMessage(player, MessageType.ADDEXPERIENCE, 18L, "Voting Playing");
+	}
+
+	@Test
+	public void atMostThreeReasonsAreListed() {
+		aggregator.start(60000, 60000);
+		aggregator.addExperience(player, 1, "a");
+		aggregator.addExperience(player, 1, "b");
+		aggregator.addExperience(player, 1, "c");
+		aggregator.addExperience(player, 1, "d");
+		aggregator.flush(PLAYER);
+		verify(levels).sendLevelingMessage(player, MessageType.ADDEXPERIENCE, 4L, "a b c");
+	}
+
+	@Test
+	public void gainsThatCancelOutAreNotSent() {
+		aggregator.start(60000, 60000);
+		aggregator.addExperience(player, 5, "Voting");
+		aggregator.addExperience(player, -5, "Penalty");
+		aggregator.flush(PLAYER);
+		verifyNoInteractions(levels);
+	}
+
+	@Test
+	public void gainsOfAPlayerWhoLeftGoToTheNotificationStore() {
+		aggregator.start(60000, 60000);
+		aggregator.addExperience(player, 7, "Voting");
+		aggregator.addExperience(player, 8, "Voting");
+		when(player.isConnected()).thenReturn(false);
+		aggregator.flush(PLAYER);
+		verify(notifications).addExperience(PLAYER, 15L);
+		verifyNoInteractions(levels);
+	}
+
+	@Test
+	public void closeSendsWhatIsHeldAndStopsHolding() {
+		aggregator.start(60000, 60000);
+		aggregator.addExperience(player, 4, "Voting");
+		aggregator.close();
+		verify(levels).sendLevelingMessage(player, MessageType.ADDEXPERIENCE, 4L, "Voting");
+		aggregator.addExperience(player, 6, "Playing");
+		verify(levels).sendLevelingMessage(player, MessageType.ADDEXPERIENCE, 6L, "Playing");
+	}
+
+	@Test
+	public void theTaskSendsGainsOnceTheWindowPassed() throws InterruptedException {
+		aggregator.start(20, 1000);
+		ArgumentCaptor<Runnable> task = ArgumentCaptor.forClass(Runnable.class);
+		verify(scheduler).schedule(eq(pl), task.capture(), anyLong(), anyLong(), eq(TimeUnit.MILLISECONDS));
+		aggregator.addExperience(player, 9, "Voting");
+		task.getValue().run();
+		verifyNoInteractions(levels);
+		Thread.sleep(50);
+		task.getValue().run();
+		verify(levels).sendLevelingMessage(player, MessageType.ADDEXPERIENCE, 9L, "Voting");
+	}
+
+}
@@ -0,0 +1,117 @@
+package net.kjnine.networkleveling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import org.junit.Test;
+
+public class LeaderboardTest {
+
+	private static UUID player(int i) {
+		return new UUID(0, i);
+	}
+
+	@Test
+	public void higherExperienceRanksFirstAndTiesGoByUuid() {
+		Leaderboard board = new Leaderboard();
+		board.update(player(3), 50);
+		board.update(player(1), 100);
+		board.update(player(2), 50);
+		assertEquals(1, board.getRank(player(1)));
+		assertEquals(2, board.getRank(player(2)));
+		assertEquals(3, board.getRank(player(3)));
+		List<Leaderboard.Entry> top = board.getTop(0, 10);
+		assertEquals(3, top.size());
+		assertEquals(player(2), top.get(1).getUniqueId());
+		assertEquals(50, top.get(1).getExperience());
+		assertEquals(2, top.get(1).getRank());
+	}
+
+	@Test
+	public void updateMovesThePlayer() {
+		Leaderboard board = new Leaderboard();
+		for(int i = 1; i <= 5; i++) board.update(player(i), i * 10);
+		assertEquals(5, board.getRank(player(1)));
+		board.update(player(1), 1000);
+		assertEquals(1, board.getRank(player(1)));
+		assertEquals(2, board.getRank(player(5)));
+		assertEquals(5, board.size());
+		// an unchanged total keeps the rank
+		board.update(player(1), 1000);
+		assertEquals(1, board.getRank(player(1)));
+		assertEquals(5, board.size());
+	}
+
+	@Test
+	public void loadKeepsTheLiveTotal() {
+		Leaderboard board = new Leaderboard();
+		board.update(player(1), 500);
+		board.load(player(1), 20);
+		board.load(player(2), 20);
+		assertEquals(500, board.getEntry(player(1)).getExperience());
+		assertEquals(2, board.getRank(player(2)));
+	}
+
+	@Test
+	public void unrankedPlayers() {
+		Leaderboard board = new Leaderboard();
+		board.update(player(1), 10);
+		board.remove(player(1));
+		board.remove(player(2));
+		assertEquals(-1, board.getRank(player(1)));
+		assertNull(board.getEntry(player(1)));
+		assertEquals(0, board.size());
+		assertTrue(board.getTop(0, 10).isEmpty());
+	}
+
+	@Test
+	public void pagesPastTheEndAreEmpty() {
+		Leaderboard board = new Leaderboard();
+		for(int i = 1; i <= 3; i++) board.update(player(i), i);
+		assertEquals(1, board.getTop(2, 10).size());
+		assertTrue(board.getTop(3, 10).isEmpty());
+		assertTrue(board.getTop(-1, 10).isEmpty());
+		assertTrue(board.getTop(0, 0).isEmpty());
+	}
+
+	@Test
+	public void matchesASortedListUnderRandomChanges() {
+		Random random = new Random(42);
+		Leaderboard board = new Leaderboard();
+		Map<UUID, Long> model = new HashMap<>();
+		for(int step = 0; step < 5000; step++) {
+			UUID uuid = player(random.nextInt(300));
+			if(random.nextInt(10) == 0) {
+				board.remove(uuid);
+				model.remove(uuid);
+			} else {
+				// few distinct totals, so ties are common
+				long exp = random.nextInt(50);
+				board.update(uuid, exp);
+				model.put(uuid, exp);
+			}
+		}
+		List<UUID> sorted = new ArrayList<>(model.keySet());
+		sorted.sort(Comparator.<UUID>comparingLong(u -> -model.get(u)).thenComparing(u -> u));
+		assertEquals(sorted.size(), board.size());
+		for(int i = 0; i < sorted.size(); i++) assertEquals(i + 1, board.getRank(sorted.get(i)));
+		for(int offset = 0; offset < sorted.size(); offset += 37) {
+			List<Leaderboard.Entry> page = board.getTop(offset, 25);
+			assertEquals(Math.min(25, sorted.size() - offset), page.size());
+			for(int i = 0; i < page.size(); i++) {
+				assertEquals(sorted.get(offset + i), page.get(i).getUniqueId());
+				assertEquals(offset + i + 1, page.get(i).getRank());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,86 @@
+package net.kjnine.networkleveling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import net.md_5.bungee.api.ChatColor;
+import net.md_5.bungee.api.chat.BaseComponent;
+import net.md_5.bungee.api.chat.TextComponent;
+
+public class MessageTemplateTest {
+
+	private static String plain(BaseComponent[] components) {
+		return BaseComponent.toPlainText(components);
+	}
+
+	private static BaseComponent find(BaseComponent[] components, String text) {
+		for(BaseComponent c : components) {
+			if(c instanceof TextComponent && ((TextComponent) c).getText().equals(text)) return c;
+		}
+		fail("No component with the text '" + text + "'");
+		return null;
+	}
+
+	@Test
+	public void slotsAreFilledInOrder() {
+		MessageTemplate t = MessageTemplate.compile("&a%s gained %d experience for %s");
+		assertEquals("kjnine gained 1500 experience for Voting", plain(t.format("kjnine", 1500L, "Voting")));
+		assertEquals("other gained 5 experience for Playing", plain(t.format("other", 5L, "Playing")));
+	}
+
+	@Test
+	public void indexedAndRelativeSlotsPickTheirArgument() {
+		MessageTemplate t = MessageTemplate.compile("%2$s before %1$s, %<s again, then %s");
+		assertEquals("b before a, a again, then a", plain(t.format("a", "b")));
+	}
+
+	@Test
+	public void specifiersKeepTheirFlags() {
+		MessageTemplate t = MessageTemplate.compile("[%5s|%-3d|%.2f]");
+		assertEquals("[   ab|7  |1.50]", plain(t.format("ab", 7, 1.5)));
+	}
+
+	@Test
+	public void missingArgumentsAreNull() {
+		assertEquals("x and null", plain(MessageTemplate.compile("%s and %s").format("x")));
+	}
+
+	@Test
+	public void literalsWithoutSlotsAreShared() {
+		MessageTemplate t = MessageTemplate.compile("&7100%% done");
+		assertEquals("100% done", plain(t.format()));
+		assertSame(t.format(), t.format());
+	}
+
+	@Test
+	public void argumentsStartWithTheColorsOfTheirSlot() {
+		BaseComponent[] c = MessageTemplate.compile("&b&lBig %s win").format("prize");
+		assertEquals(ChatColor.AQUA, find(c, "prize").getColor());
+		assertTrue(find(c, "prize").isBold());
+	}
+
+	@Test
+	public void textAfterAnArgumentKeepsTheTemplateColors() {
+		BaseComponent[] c = MessageTemplate.compile("&aGained %s points &eand %s").format("&c&lten", "more");
+		assertEquals(ChatColor.RED, find(c, "ten").getColor());
+		assertEquals(ChatColor.GREEN, find(c, " points ").getColor());
+		assertFalse(find(c, " points ").isBold());
+		assertEquals(ChatColor.YELLOW, find(c, "more").getColor());
+	}
+
+	@Test
+	public void colorCodesClearTheFormatsBeforeThem() {
+		BaseComponent[] c = MessageTemplate.compile("&l&bText %s").format("x");
+		assertEquals(ChatColor.AQUA, find(c, "x").getColor());
+		assertFalse(find(c, "x").isBold());
+		c = MessageTemplate.compile("&c&lWarn&r %s").format("y");
+		assertFalse(find(c, "y").isBold());
+		assertEquals(ChatColor.WHITE, find(c, "y").getColor());
+	}
+
+}
@@ -0,0 +1,145 @@
+package net.kjnine.networkleveling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import net.md_5.bungee.api.ChatColor;
+import net.md_5.bungee.config.Configuration;
+
+public class NetworkLevelTest {
+
+	private static Configuration groups() {
+		Configuration c = new Configuration();
+		c.set("novice.min", 1);
+		c.set("novice.max", 10);
+		c.set("novice.color", "GRAY");
+		c.set("expert.min", 10);
+		c.set("expert.max", 100);
+		c.set("expert.color", "GOLD");
+		c.set("expert.name", "Expert");
+		// overlaps expert, which comes first and keeps the overlap
+		c.set("event.min", 50);
+		c.set("event.max", 60);
+		c.set("event.color", "RED");
+		// past the dense lookup, after a gap
+		c.set("legend.min", 200);
+		c.set("legend.max", 500000);
+		c.set("legend.color", "AQUA");
+		return c;
+	}
+
+	private static String group(int level) {
+		return NetworkLevel.getLevelGroup(level).getName();
+	}
+
+	/**
+	 * The lookup the interval index replaced: first group containing the level,
+	 * otherwise the lowest group below its minimum and in gaps, and the highest group past its maximum.
+	 */
+	private static String scan(Configuration groups, int level) {
+		String lowest = null, highest = null;
+		int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+		for(String k : groups.getKeys()) {
+			Configuration c = groups.getSection(k);
+			String name = c.contains("name") ? c.getString("name") : k;
+			if(level >= c.getInt("min") && level < c.getInt("max")) return name;
+			if(c.getInt("min") < min) {
+				min = c.getInt("min");
+				lowest = name;
+			}
+			if(c.getInt("max") > max) {
+				max = c.getInt("max");
+				highest = name;
+			}
+		}
+		return level >= max ? highest : lowest;
+	}
+
+	private static long max(int level) {
+		return NetworkLevel.getMaximumExperience(level);
+	}
+
+	@Test
+	public void thresholdsFollowTheFormula() {
+		NetworkLevel.init(groups(), 200);
+		assertEquals(0, max(0));
+		assertEquals(7, max(1));
+		assertEquals(21, max(2));
+		assertEquals(315, max(9));
+		// both formulas meet at level 10
+		assertEquals(385, max(10));
+		// past the table the formula is used directly
+		assertEquals(201L * 202 * 403 / 6, max(201));
+	}
+
+	@Test
+	public void levelForExperienceMatchesALinearScan() {
+		NetworkLevel.init(groups(), 200);
+		int level = 1;
+		for(long exp = 0; exp <= max(200) + 10; exp++) {
+			while(level < 200 && exp >= max(level)) level++;
+			assertEquals(level, NetworkLevel.levelForExperience(exp));
+		}
+	}
+
+	@Test
+	public void maxLevelCapsTheLevel() {
+		NetworkLevel.init(groups(), 50);
+		assertEquals(50, NetworkLevel.getMaximumLevel());
+		assertEquals(50, NetworkLevel.levelForExperience(max(50)));
+		assertEquals(50, NetworkLevel.levelForExperience(Long.MAX_VALUE));
+		NetworkLevel.init(groups(), 0);
+		assertEquals(1, NetworkLevel.getMaximumLevel());
+		assertEquals(1, NetworkLevel.levelForExperience(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void levelLimitKeepsTheTableInALong() {
+		NetworkLevel.init(groups(), Integer.MAX_VALUE);
+		int limit = NetworkLevel.LEVEL_LIMIT;
+		assertEquals(limit, NetworkLevel.getMaximumLevel());
+		assertTrue(max(limit) > max(limit - 1));
+		assertTrue(max(limit - 1) > 0);
+		assertEquals(limit - 1, NetworkLevel.levelForExperience(max(limit - 1) - 1));
+		assertEquals(limit, NetworkLevel.levelForExperience(max(limit - 1)));
+		assertEquals(limit, NetworkLevel.levelForExperience(Long.MAX_VALUE));
+	}
+
+	@Test
+	public void levelGroupsFollowTheirRanges() {
+		NetworkLevel.init(groups(), 1000);
+		assertEquals("novice", group(0));
+		assertEquals("novice", group(1));
+		assertEquals("novice", group(9));
+		assertEquals("Expert", group(10));
+		assertEquals("Expert", group(55));
+		assertEquals("Expert", group(99));
+		assertEquals("novice", group(150));
+		assertEquals("legend", group(200));
+		assertEquals("legend", group(300000));
+		assertEquals("legend", group(500000));
+		assertEquals("legend", group(Integer.MAX_VALUE));
+	}
+
+	@Test
+	public void formattedLevelsArePrecomputedUpToTheMaxLevel() {
+		NetworkLevel.init(groups(), 1000);
+		NetworkLevel legend = NetworkLevel.getLevelGroup(300);
+		assertSame(legend.formatLevel(1000), legend.formatLevel(1000));
+		assertEquals(ChatColor.AQUA + "Level 1,000", legend.formatLevel(1000));
+		// past the max level, formatted on use
+		assertEquals(ChatColor.AQUA + "Level 300,000", legend.formatLevel(300000));
+		assertEquals(ChatColor.GRAY + "Level 0", NetworkLevel.getLevelGroup(0).formatLevel(0));
+	}
+
+	@Test
+	public void levelGroupsMatchALinearScan() {
+		Configuration groups = groups();
+		NetworkLevel.init(groups, 1000);
+		for(int level = -5; level <= 500005; level++) assertEquals(scan(groups, level), group(level));
+	}
+
+}
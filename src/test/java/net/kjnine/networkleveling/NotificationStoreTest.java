@@ -0,0 +1,107 @@
+package net.kjnine.networkleveling;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class NotificationStoreTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private static UUID player(int i) {
+		return new UUID(0, i);
+	}
+
+	private NotificationStore open(int maxPlayers) throws IOException {
+		return new NotificationStore(new File(tmp.getRoot(), "notifications.dat"), maxPlayers);
+	}
+
+	@Test
+	public void gainsAreAddedAndTheLastLevelKept() throws IOException {
+		NotificationStore store = open(10);
+		store.addExperience(player(1), 40);
+		store.setLevel(player(1), "Level 3");
+		store.addExperience(player(1), 60);
+		store.setLevel(player(1), "Level 4");
+		NotificationStore.Summary s = store.take(player(1));
+		assertEquals(100, s.getExperience());
+		assertEquals(2, s.getGains());
+		assertEquals("Level 4", s.getLevel());
+		assertNull(store.take(player(1)));
+		assertEquals(0, store.size());
+	}
+
+	@Test
+	public void playersNotifiedFirstAreDroppedPastTheBound() throws IOException {
+		NotificationStore store = open(3);
+		for(int i = 1; i <= 3; i++) store.addExperience(player(i), i);
+		// a later gain doesn't make a player newer
+		store.addExperience(player(1), 5);
+		store.addExperience(player(4), 4);
+		assertEquals(3, store.size());
+		assertNull(store.take(player(1)));
+		assertNotNull(store.take(player(2)));
+		assertNotNull(store.take(player(4)));
+	}
+
+	@Test
+	public void boundIsAtLeastOne() throws IOException {
+		NotificationStore store = open(0);
+		store.addExperience(player(1), 1);
+		store.addExperience(player(2), 1);
+		assertEquals(1, store.size());
+		assertNotNull(store.take(player(2)));
+	}
+
+	@Test
+	public void savedStoreIsLoadedAgain() throws IOException {
+		NotificationStore store = open(10);
+		store.addExperience(player(1), 25);
+		store.addExperience(player(1), 25);
+		store.setLevel(player(2), "\u00a76Level 12");
+		store.save();
+
+		store = open(10);
+		assertEquals(2, store.size());
+		NotificationStore.Summary first = store.take(player(1));
+		assertEquals(50, first.getExperience());
+		assertEquals(2, first.getGains());
+		assertNull(first.getLevel());
+		NotificationStore.Summary second = store.take(player(2));
+		assertEquals(0, second.getExperience());
+		assertEquals("\u00a76Level 12", second.getLevel());
+	}
+
+	@Test
+	public void loadingKeepsTheNewestPlayersWithinTheBound() throws IOException {
+		NotificationStore store = open(10);
+		for(int i = 1; i <= 5; i++) store.addExperience(player(i), i);
+		store.save();
+
+		store = open(2);
+		assertEquals(2, store.size());
+		assertNotNull(store.take(player(4)));
+		assertNotNull(store.take(player(5)));
+	}
+
+	@Test
+	public void takenPlayersStayTakenAfterASave() throws IOException {
+		NotificationStore store = open(10);
+		store.addExperience(player(1), 10);
+		store.save();
+		store.take(player(1));
+		store.save();
+
+		assertEquals(0, open(10).size());
+	}
+
+}
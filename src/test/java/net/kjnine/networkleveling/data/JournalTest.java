@@ -0,0 +1,179 @@
+package net.kjnine.networkleveling.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class JournalTest {
+
+	private static final Logger LOGGER = Logger.getLogger("JournalTest");
+	private static final UUID FIRST = UUID.fromString("5f0c8a3e-1b2d-4c6e-9f70-8a1b2c3d4e5f");
+	private static final UUID SECOND = UUID.fromString("0e9d8c7b-6a59-4837-a625-1403f2e1d0c9");
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private Journal open(File folder) throws IOException {
+		return new Journal(folder, 0, LOGGER);
+	}
+
+	@Test
+	public void changesAreReplayedAfterARestart() throws IOException {
+		File folder = tmp.newFolder("journal");
+		Journal journal = open(folder);
+		journal.append(Journal.SET, FIRST, 5, 1000).join();
+		journal.append(Journal.EXPERIENCE, SECOND, 2, 20).join();
+		journal.close();
+
+		journal = open(folder);
+		List<Journal.Entry> replayed = journal.replay();
+		journal.close();
+		assertEquals(2, replayed.size());
+		assertEquals(Journal.SET, replayed.get(0).getType());
+		assertEquals(FIRST, replayed.get(0).getUniqueId());
+		assertEquals(5, replayed.get(0).getLevel());
+		assertEquals(1000, replayed.get(0).getValue());
+		assertEquals(Journal.EXPERIENCE, replayed.get(1).getType());
+		assertEquals(SECOND, replayed.get(1).getUniqueId());
+		assertEquals(20, replayed.get(1).getValue());
+	}
+
+	@Test
+	public void replaySkipsChangesStoredBeforeAPartialFlush() throws IOException {
+		File folder = tmp.newFolder("journal");
+		Journal journal = open(folder);
+		journal.append(Journal.EXPERIENCE, FIRST, 1, 10).join();
+		journal.append(Journal.EXPERIENCE, SECOND, 1, 20).join();
+		Journal.Ack last = journal.append(Journal.EXPERIENCE, FIRST, 2, 5);
+		last.join();
+		journal.seal();
+		// only the first player's increments were written before the crash
+		journal.stored(FIRST, last.getSequence());
+		journal.truncate();
+		journal.close();
+
+		journal = open(folder);
+		List<Journal.Entry> replayed = journal.replay();
+		journal.close();
+		assertEquals(1, replayed.size());
+		assertEquals(SECOND, replayed.get(0).getUniqueId());
+		assertEquals(Journal.EXPERIENCE, replayed.get(0).getType());
+		assertEquals(20, replayed.get(0).getValue());
+	}
+
+	@Test
+	public void replaySkipsChangesStoredWithoutASeal() throws IOException {
+		File folder = tmp.newFolder("journal");
+		Journal journal = open(folder);
+		Journal.Ack gain = journal.append(Journal.EXPERIENCE, FIRST, 3, 100);
+		gain.join();
+		// a disconnect writes the player without sealing or truncating the journal
+		journal.stored(FIRST, gain.getSequence());
+		journal.close();
+
+		journal = open(folder);
+		assertTrue(journal.replay().isEmpty());
+		journal.close();
+	}
+
+	@Test
+	public void changesAfterTheStoredOneAreReplayed() throws IOException {
+		File folder = tmp.newFolder("journal");
+		Journal journal = open(folder);
+		Journal.Ack set = journal.append(Journal.SET, FIRST, 5, 1000);
+		set.join();
+		journal.append(Journal.EXPERIENCE, FIRST, 5, 7).join();
+		journal.stored(FIRST, set.getSequence());
+		journal.close();
+
+		journal = open(folder);
+		List<Journal.Entry> replayed = journal.replay();
+		journal.close();
+		assertEquals(1, replayed.size());
+		assertEquals(Journal.EXPERIENCE, replayed.get(0).getType());
+		assertEquals(7, replayed.get(0).getValue());
+	}
+
+	@Test
+	public void truncateKeepsFilesUntilEveryChangeIsStored() throws IOException {
+		File folder = tmp.newFolder("journal");
+		Journal journal = open(folder);
+		Journal.Ack first = journal.append(Journal.EXPERIENCE, FIRST, 1, 1);
+		Journal.Ack second = journal.append(Journal.EXPERIENCE, SECOND, 1, 2);
+		second.join();
+		journal.seal();
+		journal.stored(FIRST, first.getSequence());
+		journal.truncate();
+		journal.close();
+
+		journal = open(folder);
+		assertEquals(1, journal.replay().size());
+		journal.stored(SECOND, second.getSequence());
+		journal.seal();
+		journal.truncate();
+		journal.close();
+
+		journal = open(folder);
+		assertTrue(journal.replay().isEmpty());
+		journal.close();
+		// only the files opened since are left
+		assertTrue(folder.list().length <= 2);
+	}
+
+	@Test
+	public void sequencesContinueAfterReopening() throws IOException {
+		File folder = tmp.newFolder("journal");
+		Journal journal = open(folder);
+		Journal.Ack before = journal.append(Journal.EXPERIENCE, FIRST, 1, 1);
+		before.join();
+		journal.close();
+
+		journal = open(folder);
+		Journal.Ack after = journal.append(Journal.EXPERIENCE, FIRST, 1, 1);
+		after.join();
+		journal.close();
+		assertTrue(after.getSequence() > before.getSequence());
+	}
+
+	@Test
+	public void tornRecordEndsTheFile() throws IOException {
+		File folder = tmp.newFolder("journal");
+		Journal journal = open(folder);
+		journal.append(Journal.EXPERIENCE, FIRST, 1, 1).join();
+		journal.append(Journal.EXPERIENCE, SECOND, 1, 2).join();
+		journal.close();
+		File[] files = folder.listFiles();
+		assertEquals(1, files.length);
+		try(RandomAccessFile f = new RandomAccessFile(files[0], "rw")) {
+			f.setLength(f.length() - 1);
+		}
+
+		journal = open(folder);
+		List<Journal.Entry> replayed = journal.replay();
+		journal.close();
+		assertEquals(1, replayed.size());
+		assertEquals(FIRST, replayed.get(0).getUniqueId());
+	}
+
+	@Test
+	public void disabledJournalKeepsNothing() {
+		Journal journal = new Journal();
+		Journal.Ack ack = journal.append(Journal.SET, FIRST, 1, 0);
+		assertTrue(ack.isDone());
+		assertEquals(0, ack.getSequence());
+		journal.stored(FIRST, ack.getSequence());
+		assertTrue(journal.replay().isEmpty());
+		journal.close();
+	}
+
+}
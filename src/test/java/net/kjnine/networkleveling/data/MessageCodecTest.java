@@ -0,0 +1,193 @@
+package net.kjnine.networkleveling.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Test;
+
+import net.kjnine.networkleveling.data.NetworkMessage.SubChannel;
+
+public class MessageCodecTest {
+
+	private static final UUID PLAYER = UUID.fromString("5f0c8a3e-1b2d-4c6e-9f70-8a1b2c3d4e5f");
+	private static final UUID OTHER = UUID.fromString("00000000-0000-0001-ffff-ffffffffffff");
+
+	private static NetworkMessage full() {
+		return new NetworkMessage()
+				.setSubChannel(SubChannel.GET_EXPERIENCE)
+				.setUniqueId(PLAYER)
+				.setServerSource("lobby-1")
+				.setServerTarget("survival")
+				.setReason("W\u00f6chentlicher Bonus")
+				.setLevel(-7)
+				.setExperience(Long.MIN_VALUE)
+				.setCorrelationId(-1L)
+				.setOffset(-300)
+				.setLimit(50)
+				.setRank(-1)
+				.addUniqueId(PLAYER)
+				.addUniqueId(OTHER)
+				.addLevel(1)
+				.addLevel(Integer.MIN_VALUE)
+				.addExperience(Long.MAX_VALUE)
+				.addExperience(-64);
+	}
+
+	@Test
+	public void roundTripKeepsEveryField() {
+		NetworkMessage msg = MessageCodec.decode(MessageCodec.encode(full()), new NetworkMessage());
+		assertEquals(SubChannel.GET_EXPERIENCE, msg.getSubChannel());
+		assertEquals(PLAYER, msg.getUniqueId());
+		assertEquals("lobby-1", msg.getServerSource());
+		assertEquals("survival", msg.getServerTarget());
+		assertEquals("W\u00f6chentlicher Bonus", msg.getReason());
+		assertEquals(-7, msg.getLevel());
+		assertEquals(Long.MIN_VALUE, msg.getExperience());
+		assertEquals(-1L, msg.getCorrelationId());
+		assertEquals(-300, msg.getOffset());
+		assertEquals(50, msg.getLimit());
+		assertEquals(-1, msg.getRank());
+		assertEquals(Arrays.asList(PLAYER, OTHER), msg.getUniqueIds());
+		assertEquals(2, msg.getLevelCount());
+		assertEquals(1, msg.getLevelAt(0));
+		assertEquals(Integer.MIN_VALUE, msg.getLevelAt(1));
+		assertEquals(2, msg.getExperienceCount());
+		assertEquals(Long.MAX_VALUE, msg.getExperienceAt(0));
+		assertEquals(-64, msg.getExperienceAt(1));
+	}
+
+	@Test
+	public void roundTripOfEmptyMessage() {
+		NetworkMessage msg = MessageCodec.decode(MessageCodec.encode(new NetworkMessage()), full());
+		assertNull(msg.getSubChannel());
+		assertNull(msg.getUniqueId());
+		assertFalse(msg.hasLevel());
+		assertFalse(msg.hasExperience());
+		assertEquals(0, msg.getUniqueIdCount());
+	}
+
+	@Test
+	public void zigzagKeepsSignedValues() {
+		for(long v : new long[] {0, 1, -1, 63, -64, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE, Long.MIN_VALUE}) {
+			assertEquals(v, MessageCodec.unzigzag(MessageCodec.zigzag(v)));
+		}
+		// small negative values stay small on the wire
+		assertEquals(1, MessageCodec.zigzag(-1));
+		assertEquals(127, MessageCodec.zigzag(-64));
+	}
+
+	@Test
+	public void truncatedInputIsRejectedOrReadUpToTheLastWholeField() {
+		byte[] data = MessageCodec.encode(full());
+		for(int len = 2; len < data.length; len++) {
+			byte[] cut = Arrays.copyOf(data, len);
+			NetworkMessage msg;
+			try {
+				msg = MessageCodec.decode(cut, new NetworkMessage());
+			} catch(IllegalArgumentException e) {
+				continue;
+			}
+			// a cut between two fields leaves a shorter valid message, nothing of a cut field may be read
+			assertArrayEquals(cut, MessageCodec.encode(msg));
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void truncatedUniqueIdIsRejected() {
+		byte[] data = MessageCodec.encode(new NetworkMessage().setUniqueId(PLAYER));
+		MessageCodec.decode(Arrays.copyOf(data, data.length - 1), new NetworkMessage());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void truncatedStringIsRejected() {
+		byte[] data = MessageCodec.encode(new NetworkMessage().setServerSource("lobby-1"));
+		MessageCodec.decode(Arrays.copyOf(data, data.length - 2), new NetworkMessage());
+	}
+
+	@Test
+	public void unknownFieldsAreSkipped() {
+		MessageCodec.Writer w = new MessageCodec.Writer();
+		byte[] known = MessageCodec.encode(new NetworkMessage().setSubChannel(SubChannel.SET_LEVEL).setLevel(42));
+		w.writeBytes(known, 0, known.length);
+		w.writeTag(30, MessageCodec.WIRE_VARINT);
+		w.writeVarLong(Long.MIN_VALUE);
+		w.writeTag(29, MessageCodec.WIRE_FIXED128);
+		w.writeLong(1);
+		w.writeLong(2);
+		w.writeTag(31, MessageCodec.WIRE_BYTES);
+		w.writeString("from a newer proxy");
+		w.writeTag(MessageCodec.UUID, MessageCodec.WIRE_FIXED128);
+		w.writeLong(PLAYER.getMostSignificantBits());
+		w.writeLong(PLAYER.getLeastSignificantBits());
+		NetworkMessage msg = MessageCodec.decode(w.toByteArray(), new NetworkMessage());
+		assertEquals(SubChannel.SET_LEVEL, msg.getSubChannel());
+		assertEquals(42, msg.getLevel());
+		assertEquals(PLAYER, msg.getUniqueId());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownWireTypeIsRejected() {
+		MessageCodec.decode(new byte[] {MessageCodec.MAGIC, MessageCodec.VERSION, (byte) (1 << 3 | 5), 0}, new NetworkMessage());
+	}
+
+	@Test
+	public void unknownVersionIsRejected() {
+		byte[] data = MessageCodec.encode(full());
+		data[1] = MessageCodec.VERSION + 1;
+		try {
+			MessageCodec.decode(data, new NetworkMessage());
+			fail("Decoded a message of an unknown version");
+		} catch(IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void legacyOutputIsReadByByteMessage() {
+		NetworkMessage msg = new NetworkMessage()
+				.setSubChannel(SubChannel.GET_EXPERIENCE)
+				.setUniqueId(PLAYER)
+				.setLevel(12)
+				.setExperience(-64);
+		byte[] data = MessageCodec.encodeLegacy(msg);
+		assertFalse(MessageCodec.isBinary(data));
+		Map<String, Object> dataMap = new ByteMessage(data).getDatamap();
+		assertEquals("GetExperience", dataMap.get("SubChannel"));
+		assertEquals(PLAYER, dataMap.get("UUID"));
+		assertEquals(12, dataMap.get("Level"));
+		assertEquals(-64L, dataMap.get("Experience"));
+		NetworkMessage read = MessageCodec.decode(data, new NetworkMessage());
+		assertEquals(SubChannel.GET_EXPERIENCE, read.getSubChannel());
+		assertEquals(PLAYER, read.getUniqueId());
+		assertEquals(12, read.getLevel());
+		assertEquals(-64, read.getExperience());
+	}
+
+	@Test
+	public void bulkMessagesDontFitTheLegacyFormat() {
+		assertFalse(MessageCodec.isLegacyCompatible(full()));
+		assertFalse(MessageCodec.isLegacyCompatible(new NetworkMessage().setSubChannel(SubChannel.GET_LEVEL).setCorrelationId(3)));
+		try {
+			MessageCodec.encodeLegacy(full());
+			fail("Wrote bulk fields in the legacy format");
+		} catch(IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void serverTargetCanBeAppended() {
+		byte[] data = MessageCodec.appendServerTarget(MessageCodec.encode(new NetworkMessage().setUniqueId(PLAYER)), "hub");
+		NetworkMessage msg = MessageCodec.decode(data, new NetworkMessage());
+		assertEquals(PLAYER, msg.getUniqueId());
+		assertEquals("hub", msg.getServerTarget());
+	}
+
+}
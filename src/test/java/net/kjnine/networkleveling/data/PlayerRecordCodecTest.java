@@ -0,0 +1,74 @@
+package net.kjnine.networkleveling.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.UUID;
+
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentReader;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonDouble;
+import org.bson.BsonInt32;
+import org.bson.BsonInt64;
+import org.bson.BsonString;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.junit.Test;
+
+public class PlayerRecordCodecTest {
+
+	private static final UUID PLAYER = UUID.fromString("5f0c8a3e-1b2d-4c6e-9f70-8a1b2c3d4e5f");
+
+	private final PlayerRecordCodec codec = new PlayerRecordCodec();
+
+	private PlayerRecord decode(BsonDocument doc) {
+		return codec.decode(new BsonDocumentReader(doc), DecoderContext.builder().build());
+	}
+
+	@Test
+	public void roundTripKeepsTheRecord() {
+		BsonDocument doc = new BsonDocument();
+		codec.encode(new BsonDocumentWriter(doc), new PlayerRecord(PLAYER, 42, Long.MAX_VALUE), EncoderContext.builder().build());
+		assertEquals(PLAYER.toString(), doc.getString("uuid").getValue());
+		PlayerRecord r = decode(doc);
+		assertEquals(PLAYER, r.getUniqueId());
+		assertEquals(42, r.getLevel());
+		assertEquals(Long.MAX_VALUE, r.getExperience());
+	}
+
+	@Test
+	public void unknownFieldsAreSkipped() {
+		BsonDocument doc = new BsonDocument()
+				.append("name", new BsonString("kjnine"))
+				.append("uuid", new BsonString(PLAYER.toString()))
+				.append("settings", new BsonDocument("chat", new BsonBoolean(false)))
+				.append("level", new BsonInt32(3))
+				.append("experience", new BsonInt64(250));
+		PlayerRecord r = decode(doc);
+		assertEquals(PLAYER, r.getUniqueId());
+		assertEquals(3, r.getLevel());
+		assertEquals(250, r.getExperience());
+	}
+
+	@Test
+	public void numbersOfAnyTypeAreRead() {
+		BsonDocument doc = new BsonDocument()
+				.append("uuid", new BsonString(PLAYER.toString()))
+				.append("level", new BsonInt64(9))
+				.append("experience", new BsonDouble(1234.0));
+		PlayerRecord r = decode(doc);
+		assertEquals(9, r.getLevel());
+		assertEquals(1234, r.getExperience());
+	}
+
+	@Test
+	public void missingFieldsReadAsANewPlayer() {
+		PlayerRecord r = decode(new BsonDocument("name", new BsonString("kjnine")));
+		assertNull(r.getUniqueId());
+		assertEquals(1, r.getLevel());
+		assertEquals(0, r.getExperience());
+	}
+
+}
@@ -0,0 +1,260 @@
+package net.kjnine.networkleveling.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.stubbing.Answer;
+
+import net.kjnine.networkleveling.Leaderboard;
+import net.kjnine.networkleveling.NetworkLevel;
+import net.kjnine.networkleveling.NetworkLevelingPlugin;
+import net.md_5.bungee.api.ProxyServer;
+import net.md_5.bungee.api.connection.ProxiedPlayer;
+import net.md_5.bungee.config.Configuration;
+
+public class ProfileCacheTest {
+
+	private static final UUID PLAYER = UUID.fromString("5f0c8a3e-1b2d-4c6e-9f70-8a1b2c3d4e5f");
+
+	private ProxyServer proxy;
+	private DataLoader dl;
+	private ProfileCache cache;
+	// level and experience the mocked DataLoader has stored
+	private Map<UUID, long[]> stored = new HashMap<>();
+	private boolean failing;
+
+	@Before
+	public void setUp() {
+		NetworkLevel.init(new Configuration());
+		NetworkLevelingPlugin pl = mock(NetworkLevelingPlugin.class);
+		proxy = mock(ProxyServer.class);
+		dl = mock(DataLoader.class);
+		when(pl.getProxy()).thenReturn(proxy);
+		when(pl.getDataLoader()).thenReturn(dl);
+		when(pl.getJournal()).thenReturn(new Journal());
+		when(pl.getLeaderboard()).thenReturn(new Leaderboard());
+		when(dl.supplyAsync(any())).thenAnswer(i -> CompletableFuture.completedFuture(i.<Supplier<?>>getArgument(0).get()));
+		when(dl.getRecordsAsync(any())).thenAnswer(i -> CompletableFuture.completedFuture(dl.getRecords(i.getArgument(0))));
+		when(dl.getRecords(any())).thenAnswer(i -> {
+			if(failing) return null;
+			Map<UUID, PlayerRecord> out = new HashMap<>();
+			for(UUID uuid : i.<Collection<UUID>>getArgument(0)) {
+				if(stored.containsKey(uuid)) out.put(uuid, new PlayerRecord(uuid, level(uuid), experience(uuid)));
+			}
+			return out;
+		});
+		when(dl.setRecords(anyList())).thenAnswer(i -> {
+			List<PlayerRecord> records = i.getArgument(0);
+			boolean[] out = new boolean[records.size()];
+			for(int n = 0; n < out.length && !failing; n++) {
+				PlayerRecord r = records.get(n);
+				out[n] = store(r.getUniqueId(), r.getLevel(), r.getExperience());
+			}
+			return out;
+		});
+		when(dl.setLevels(anyList(), any())).thenAnswer(i -> {
+			List<UUID> uuids = i.getArgument(0);
+			int[] levels = i.getArgument(1);
+			boolean[] out = new boolean[uuids.size()];
+			for(int n = 0; n < out.length && !failing; n++) {
+				out[n] = store(uuids.get(n), levels[n], experience(uuids.get(n)));
+			}
+			return out;
+		});
+		when(dl.incrementExperience(anyList(), any())).thenAnswer(increments(null));
+		cache = new ProfileCache(pl);
+	}
+
+	/**
+	 * @param during runs before the increments are stored, while the flush is writing
+	 */
+	private Answer<long[]> increments(Runnable during) {
+		return i -> {
+			if(during != null) during.run();
+			List<UUID> uuids = i.getArgument(0);
+			long[] deltas = i.getArgument(1);
+			long[] out = new long[uuids.size()];
+			for(int n = 0; n < out.length; n++) {
+				out[n] = failing ? -1 : increment(uuids.get(n), deltas[n]);
+			}
+			return out;
+		};
+	}
+
+	private boolean store(UUID uuid, long level, long exp) {
+		stored.put(uuid, new long[] {level, exp});
+		return true;
+	}
+
+	private int level(UUID uuid) {
+		return stored.containsKey(uuid) ? (int) stored.get(uuid)[0] : 1;
+	}
+
+	private long experience(UUID uuid) {
+		return stored.containsKey(uuid) ? stored.get(uuid)[1] : 0;
+	}
+
+	private long increment(UUID uuid, long delta) {
+		store(uuid, level(uuid), experience(uuid) + delta);
+		return experience(uuid);
+	}
+
+	private PlayerProfile gain(long exp) {
+		return cache.modify(PLAYER, p -> {
+			long total = p.getExperience() + exp;
+			p.addExperience(NetworkLevel.levelForExperience(total), total);
+			return p;
+		}).join();
+	}
+
+	private void online() {
+		ProxiedPlayer player = mock(ProxiedPlayer.class);
+		when(player.isConnected()).thenReturn(true);
+		when(proxy.getPlayer(PLAYER)).thenReturn(player);
+	}
+
+	@Test
+	public void newPlayersStartAtTheFirstLevel() {
+		PlayerProfile p = cache.get(PLAYER).join();
+		assertEquals(1, p.getLevel());
+		assertEquals(0, p.getExperience());
+		assertFalse(p.isDirty());
+	}
+
+	@Test
+	public void gainsAreAddedToTheStoredTotal() {
+		store(PLAYER, 5, 100);
+		online();
+		PlayerProfile p = gain(40);
+		assertEquals(6, p.getLevel());
+		// another proxy's gain lands before the flush
+		increment(PLAYER, 30);
+		cache.flush().join();
+		assertEquals(170, experience(PLAYER));
+		assertEquals(170, p.getExperience());
+		// the level follows the total, gains of other proxies included
+		assertEquals(7, p.getLevel());
+		assertEquals(7, level(PLAYER));
+		assertFalse(p.isDirty());
+	}
+
+	@Test
+	public void setsOverwriteTheStoredRecord() {
+		store(PLAYER, 5, 100);
+		online();
+		cache.modify(PLAYER, p -> {
+			p.set(2, 10);
+			return null;
+		}).join();
+		cache.flush().join();
+		assertEquals(2, level(PLAYER));
+		assertEquals(10, experience(PLAYER));
+	}
+
+	@Test
+	public void failedWritesStayPendingForTheNextFlush() {
+		store(PLAYER, 5, 100);
+		online();
+		PlayerProfile p = gain(20);
+		failing = true;
+		cache.flush().join();
+		assertEquals(100, experience(PLAYER));
+		assertTrue(p.isDirty());
+		failing = false;
+		gain(5);
+		cache.flush().join();
+		assertEquals(125, experience(PLAYER));
+		assertFalse(p.isDirty());
+	}
+
+	@Test
+	public void gainsMadeDuringAWriteAreKeptForTheNextFlush() {
+		store(PLAYER, 5, 100);
+		online();
+		PlayerProfile p = gain(20);
+		doAnswer(increments(() -> gain(7))).when(dl).incrementExperience(anyList(), any());
+		cache.flush().join();
+		assertEquals(120, experience(PLAYER));
+		assertEquals(127, p.getExperience());
+		assertTrue(p.isDirty());
+	}
+
+	@Test
+	public void cleanProfilesOfOfflinePlayersAreDropped() {
+		cache.get(PLAYER).join();
+		cache.flush().join();
+		cache.get(PLAYER).join();
+		verify(dl, times(2)).getRecords(any());
+	}
+
+	@Test
+	public void profilesOfOnlinePlayersStayCached() {
+		online();
+		cache.get(PLAYER).join();
+		cache.flush().join();
+		cache.get(PLAYER).join();
+		verify(dl, times(1)).getRecords(any());
+	}
+
+	@Test
+	public void disconnectKeepsTheProfileUntilItIsWritten() {
+		store(PLAYER, 5, 100);
+		gain(20);
+		failing = true;
+		cache.flush(PLAYER).join();
+		failing = false;
+		assertEquals(120, cache.get(PLAYER).join().getExperience());
+		cache.flush(PLAYER).join();
+		assertEquals(120, experience(PLAYER));
+		cache.get(PLAYER).join();
+		verify(dl, times(2)).getRecords(any());
+	}
+
+	@Test
+	public void unloadedChangesAreWrittenByTheNextFlush() {
+		store(PLAYER, 5, 100);
+		cache.modifyUnloaded(PLAYER, Journal.EXPERIENCE, 5, 25).join();
+		cache.flush().join();
+		assertEquals(125, experience(PLAYER));
+		assertEquals(6, level(PLAYER));
+	}
+
+	@Test
+	public void unloadedChangesAreMergedIntoTheLoadedProfile() {
+		store(PLAYER, 5, 100);
+		cache.modifyUnloaded(PLAYER, Journal.EXPERIENCE, 5, 25).join();
+		PlayerProfile p = cache.get(PLAYER).join();
+		assertEquals(125, p.getExperience());
+		assertTrue(p.isDirty());
+		cache.close();
+		assertEquals(125, experience(PLAYER));
+	}
+
+	@Test
+	public void closeWritesEverythingPending() {
+		store(PLAYER, 5, 100);
+		online();
+		gain(3);
+		cache.close();
+		assertEquals(103, experience(PLAYER));
+	}
+
+}
@@ -0,0 +1,147 @@
+package net.kjnine.networkleveling.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import net.kjnine.networkleveling.data.DataLoader.SegmentFile;
+
+public class SegmentFileTest {
+
+	@Rule
+	public TemporaryFolder tmp = new TemporaryFolder();
+
+	private static List<UUID> players(int count) {
+		List<UUID> uuids = new ArrayList<>();
+		for(int i = 0; i < count; i++) uuids.add(new UUID(0x5f0c8a3e1b2d4c6eL, i));
+		return uuids;
+	}
+
+	@Test
+	public void recordsSurviveReloadAfterClose() throws IOException {
+		File folder = tmp.newFolder("segments");
+		List<UUID> uuids = players(10);
+		long[] deltas = new long[uuids.size()];
+		Arrays.fill(deltas, 5);
+		// four records per segment, so the records span three segment files
+		SegmentFile store = new SegmentFile(folder, null, 4);
+		assertArrayEquals(deltas, store.incrementExperience(uuids, deltas));
+		int[] levels = new int[uuids.size()];
+		for(int i = 0; i < levels.length; i++) levels[i] = i + 1;
+		store.setLevels(uuids, levels);
+		store.setRecord(new PlayerRecord(uuids.get(0), 7, 700));
+		store.close();
+
+		store = new SegmentFile(folder, null, 4);
+		Map<UUID, PlayerRecord> records = store.getRecords(uuids);
+		assertEquals(uuids.size(), records.size());
+		assertEquals(7, records.get(uuids.get(0)).getLevel());
+		assertEquals(700, records.get(uuids.get(0)).getExperience());
+		for(int i = 1; i < uuids.size(); i++) {
+			assertEquals(i + 1, records.get(uuids.get(i)).getLevel());
+			assertEquals(5, records.get(uuids.get(i)).getExperience());
+		}
+		assertEquals(705, store.incrementExperience(uuids.get(0), 5));
+		assertNull(store.getRecord(UUID.randomUUID()));
+		store.close();
+	}
+
+	@Test
+	public void segmentsKeepTheirSizeWhenTheSettingChanges() throws IOException {
+		File folder = tmp.newFolder("segments");
+		List<UUID> uuids = players(10);
+		long[] deltas = new long[uuids.size()];
+		Arrays.fill(deltas, 3);
+		SegmentFile store = new SegmentFile(folder, null, 16);
+		store.incrementExperience(uuids, deltas);
+		store.close();
+
+		store = new SegmentFile(folder, null, 4);
+		assertEquals(uuids.size(), store.getRecords(uuids).size());
+		store.close();
+	}
+
+	@Test
+	public void strayFilesAreSkipped() throws IOException {
+		File folder = tmp.newFolder("segments");
+		UUID uuid = players(1).get(0);
+		SegmentFile store = new SegmentFile(folder, null, 4);
+		store.setRecord(new PlayerRecord(uuid, 2, 50));
+		store.close();
+		new File(folder, "segment-00000000.dat.bak").createNewFile();
+		new File(folder, "notes.txt").createNewFile();
+
+		store = new SegmentFile(folder, null, 4);
+		assertEquals(50, store.getRecord(uuid).getExperience());
+		store.close();
+	}
+
+	@Test
+	public void interruptedImportStartsOver() throws IOException {
+		File folder = tmp.newFolder("segments");
+		File data = tmp.newFolder("data");
+		List<UUID> uuids = players(3);
+		for(int i = 0; i < uuids.size(); i++) {
+			Files.write(new File(data, uuids.get(i) + ".json").toPath(), 
+					("{\"level\":" + (i + 2) + ",\"experience\":" + (i * 100) + "}").getBytes(StandardCharsets.UTF_8));
+		}
+		// a store that stopped after the first player, with the marker still there
+		UUID stray = UUID.randomUUID();
+		SegmentFile store = new SegmentFile(folder, null, 4);
+		store.setRecord(new PlayerRecord(uuids.get(0), 2, 0));
+		store.setRecord(new PlayerRecord(stray, 1, 1));
+		store.close();
+		new File(folder, "import.pending").createNewFile();
+
+		store = new SegmentFile(folder, data, 4);
+		assertFalse(new File(folder, "import.pending").exists());
+		Map<UUID, PlayerRecord> records = store.getRecords(uuids);
+		assertEquals(uuids.size(), records.size());
+		assertNull(store.getRecord(stray));
+		for(int i = 0; i < uuids.size(); i++) {
+			assertEquals(i + 2, records.get(uuids.get(i)).getLevel());
+			assertEquals(i * 100, records.get(uuids.get(i)).getExperience());
+		}
+		store.close();
+		// a finished import isn't repeated
+		Files.write(new File(data, uuids.get(0) + ".json").toPath(), "{\"level\":9}".getBytes(StandardCharsets.UTF_8));
+		store = new SegmentFile(folder, data, 4);
+		assertEquals(2, store.getRecord(uuids.get(0)).getLevel());
+		store.close();
+	}
+
+	@Test
+	public void partialSegmentIsRefused() throws IOException {
+		File folder = tmp.newFolder("segments");
+		SegmentFile store = new SegmentFile(folder, null, 4);
+		store.setRecord(new PlayerRecord(players(1).get(0), 1, 1));
+		store.close();
+		try(RandomAccessFile f = new RandomAccessFile(new File(folder, "segment-00000000.dat"), "rw")) {
+			f.setLength(f.length() - 1);
+		}
+		try {
+			new SegmentFile(folder, null, 4).close();
+			fail("Opened a segment that isn't a whole number of records");
+		} catch(IOException e) {
+			// expected
+		}
+	}
+
+}